@@ -0,0 +1,83 @@
+import bench.Workloads;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Gives the benchmarks in package bench access to the uploader.
+ */
+public class BenchmarkWorkloads implements Workloads {
+
+    @Override
+    public Object md5sum(String engine, File file, int bufferSize) throws IOException {
+        return HashEngine.valueOf(engine).md5sum(file, bufferSize);
+    }
+
+    @Override
+    public Object digest(long hi, long lo) {
+        return new Digest(hi, lo);
+    }
+
+    @Override
+    public String toHex(Object digest) {
+        return ((Digest) digest).toHex();
+    }
+
+    @Override
+    public Object parseHex(String hex) {
+        return Digest.parseHex(hex);
+    }
+
+    @Override
+    public Closeable openCache(File file, File legacyFile) throws IOException {
+        return MD5Cache.open(file, legacyFile, HashEngine.STREAM, new Metrics());
+    }
+
+    @Override
+    public void putCache(Closeable cache, String relativePath, long hi, long lo, long lastModified) {
+        ((MD5Cache) cache).put(relativePath, new Digest(hi, lo), lastModified, 0);
+    }
+
+    @Override
+    public void compactCache(Closeable cache) throws IOException {
+        ((MD5Cache) cache).compact();
+    }
+
+    @Override
+    public int parseListing(InputStream in) throws IOException {
+        return MD5ListingParser.parse(in).size();
+    }
+
+    @Override
+    public int parseListingTree(InputStream in) throws IOException {
+        var json = new JSONObject(new JSONTokener(new InputStreamReader(in, UTF_8)));
+        var jsonArray = json.getJSONArray("md5");
+        var ret = new HashSet<String>();
+        for (var i = 0; i < jsonArray.length(); i++) {
+            if (!jsonArray.isNull(i)) {
+                ret.add(jsonArray.getString(i));
+            }
+        }
+        return ret.size();
+    }
+
+    @Override
+    public int fetchListing(String syncUrl) throws IOException {
+        return new iBroadcastClient(Options.DEFAULT_LOGIN_URL, syncUrl, 1, new BandwidthLimiter(0, List.of())).getMD5("1", "fake").size();
+    }
+
+    @Override
+    public int listFileTree(File dir, Set<String> extensions, int threads) throws IOException {
+        return iBroadcastUploader.listFileTree(dir, new DirectoryScanner(extensions, threads)).size();
+    }
+}
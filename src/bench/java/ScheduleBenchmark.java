@@ -0,0 +1,70 @@
+import bench.FakeIBroadcastServer;
+import bench.SyntheticLibrary;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Upload order benchmark.
+ * <p>
+ * Uploads a library with a skewed size distribution, many small tracks and a
+ * few large ones, once per {@link UploadOrder} to a {@link FakeIBroadcastServer}
+ * with limited bandwidth per connection, and reports the wall time of every
+ * order. With the large files last, a single connection is left uploading
+ * them while the others are idle, which the largest first order avoids.
+ * <p>
+ * Tunable with system properties:
+ * <ul>
+ * <li><code>bench.libraryMB</code> size of the library (default 256)</li>
+ * <li><code>bench.orders</code> comma separated list (default all)</li>
+ * <li><code>bench.runs</code> runs per order (default 3)</li>
+ * <li><code>bench.latencyMs</code> server latency per request (default 20)</li>
+ * <li><code>bench.connectionMBps</code> bandwidth per connection (default 8)</li>
+ * <li><code>bench.uploadThreads</code> parallel uploads (default 4)</li>
+ * </ul>
+ */
+public class ScheduleBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        var libraryBytes = Long.getLong("bench.libraryMB", 256) * 1024 * 1024;
+        var orders = System.getProperty("bench.orders", "SCAN,PATH,LARGEST,SMALLEST").split(",");
+        var runs = Integer.getInteger("bench.runs", 3);
+        var uploadThreads = Integer.getInteger("bench.uploadThreads", 4);
+
+        try (var server = new FakeIBroadcastServer()) {
+            server.latency(Long.getLong("bench.latencyMs", 20))
+                    .connectionBandwidth(Long.getLong("bench.connectionMBps", 8) * 1024 * 1024);
+
+            var dir = Files.createTempDirectory("ib-bench-");
+            var cacheDir = Files.createTempDirectory("ib-bench-cache-");
+            try {
+                var files = SyntheticLibrary.create(dir, SyntheticLibrary.Distribution.SKEWED, libraryBytes, 42);
+                System.out.printf("%d files, %d MB, %d upload threads%n", files, libraryBytes >> 20, uploadThreads);
+                System.out.printf("%-8s %8s%n", "order", "seconds");
+                for (var name : orders) {
+                    var order = name.trim().toLowerCase();
+                    for (var run = 0; run < runs; run++) {
+                        // fresh md5 cache, so hashing is included
+                        SyntheticLibrary.delete(cacheDir);
+                        var uploadArgs = new ArrayList<String>();
+                        uploadArgs.add("--yes");
+                        uploadArgs.add("--login-url=" + server.loginUrl());
+                        uploadArgs.add("--sync-url=" + server.syncUrl());
+                        uploadArgs.add("--cache-dir=" + cacheDir);
+                        uploadArgs.add("--order=" + order);
+                        uploadArgs.add("--upload-threads=" + uploadThreads);
+                        uploadArgs.addAll(Arrays.asList("bench@example.com", "secret", dir.toString()));
+                        var seconds = ThroughputBenchmark.timeQuietly(uploadArgs.toArray(new String[0]));
+                        System.out.printf("%-8s %8.2f%n", order, seconds);
+                    }
+                }
+            } finally {
+                SyntheticLibrary.delete(dir);
+                if (Files.exists(cacheDir)) {
+                    SyntheticLibrary.delete(cacheDir);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+import bench.FakeIBroadcastServer;
+import bench.LocalhostCertificate;
+import bench.SyntheticLibrary;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Startup benchmark and class-data-sharing training run of the runtime image.
+ * <p>
+ * Runs the uploader in separate JVMs against a {@link FakeIBroadcastServer}
+ * for a small library. Like the real servers, the fake one serves https, with
+ * a self-signed certificate the uploader is told to trust, so the classes of
+ * the TLS handshake get into the archive and count in the startup time.
+ * <ul>
+ * <li><code>train &lt;java&gt; &lt;jar&gt; &lt;archive&gt;</code> uploads
+ * the library once, recording the classes loaded, and dumps them into an
+ * application class-data-sharing archive.</li>
+ * <li><code>measure &lt;java&gt; &lt;jar&gt; &lt;archive&gt;</code> times an
+ * incremental run, with all md5 sums cached and known to the server, without
+ * class-data sharing, with the default archive of the runtime and with the
+ * application archive.</li>
+ * </ul>
+ * Tunable with system properties:
+ * <ul>
+ * <li><code>bench.runs</code> runs per variant (default 5)</li>
+ * </ul>
+ */
+public class StartupBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 4 || !Arrays.asList("train", "measure").contains(args[0])) {
+            System.err.println("Usage: StartupBenchmark train|measure <java> <jar> <archive>");
+            System.exit(1);
+        }
+        var java = args[1];
+        var jar = new File(args[2]).getAbsolutePath();
+        var archive = new File(args[3]).getAbsolutePath();
+
+        var dir = Files.createTempDirectory("ib-bench-");
+        var cacheDir = Files.createTempDirectory("ib-bench-cache-");
+        try {
+            var certificate = LocalhostCertificate.create(cacheDir.resolve("localhost.p12"));
+            try (var server = new FakeIBroadcastServer(certificate.serverContext())) {
+                SyntheticLibrary.create(dir, SyntheticLibrary.Distribution.SMALL, 32L * 1024 * 1024, 42);
+                var uploader = List.of("-Djavax.net.ssl.trustStore=" + certificate.keyStore(),
+                        "-Djavax.net.ssl.trustStorePassword=" + LocalhostCertificate.PASSWORD,
+                        "-cp", jar, "iBroadcastUploader", "--yes", "--output=log",
+                        "--cache-dir=" + cacheDir, "--login-url=" + server.loginUrl(),
+                        "--sync-url=" + server.syncUrl(), "bench@example.com", "secret", dir.toString());
+                if (args[0].equals("train")) {
+                    train(java, jar, archive, uploader);
+                } else {
+                    measure(java, archive, uploader, server, dir);
+                }
+            }
+        } finally {
+            SyntheticLibrary.delete(dir);
+            SyntheticLibrary.delete(cacheDir);
+        }
+    }
+
+    private static void train(String java, String jar, String archive, List<String> uploader) throws Exception {
+        var classList = new File(archive + ".classlist");
+        try {
+            run(java, List.of("-Xshare:off", "-XX:DumpLoadedClassList=" + classList), uploader);
+            run(java, List.of("-Xshare:dump", "-XX:SharedClassListFile=" + classList,
+                    "-XX:SharedArchiveFile=" + archive, "-cp", jar), List.of());
+        } finally {
+            Files.deleteIfExists(classList.toPath());
+        }
+        System.out.printf("Class-data-sharing archive written to %s (%.1f MB)%n",
+                archive, new File(archive).length() / (1024.0 * 1024.0));
+    }
+
+    private static void measure(String java, String archive, List<String> uploader,
+                                FakeIBroadcastServer server, Path dir) throws Exception {
+        var runs = Integer.getInteger("bench.runs", 5);
+        // fill the md5 cache, then let the server know all files
+        run(java, List.of(), uploader);
+        try (var files = Files.walk(dir)) {
+            for (var file : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                server.addKnownMD5(md5(file));
+            }
+        }
+
+        System.out.printf("%-12s %8s %8s%n", "sharing", "median", "min");
+        time("off", java, List.of("-Xshare:off"), uploader, runs);
+        time("jdk", java, List.of("-Xshare:auto"), uploader, runs);
+        time("application", java, List.of("-Xshare:auto", "-XX:SharedArchiveFile=" + archive), uploader, runs);
+    }
+
+    private static void time(String name, String java, List<String> jvmArgs, List<String> uploader, int runs)
+            throws Exception {
+        var millis = new long[runs];
+        for (var i = 0; i < runs; i++) {
+            var start = System.nanoTime();
+            run(java, jvmArgs, uploader);
+            millis[i] = (System.nanoTime() - start) / 1_000_000;
+        }
+        Arrays.sort(millis);
+        System.out.printf("%-12s %6d ms %5d ms%n", name, millis[runs / 2], millis[0]);
+    }
+
+    private static void run(String java, List<String> jvmArgs, List<String> args) throws Exception {
+        var command = new ArrayList<String>();
+        command.add(java);
+        command.addAll(jvmArgs);
+        command.addAll(args);
+        var process = new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        if (process.waitFor() != 0) {
+            throw new IOException("Failed with exit code " + process.exitValue() + ": " + command);
+        }
+    }
+
+    private static String md5(Path file) throws Exception {
+        var digest = MessageDigest.getInstance("MD5");
+        try (var in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        var hex = new StringBuilder();
+        for (var b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,95 @@
+import bench.FakeIBroadcastServer;
+import bench.SyntheticLibrary;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * End-to-end upload throughput benchmark.
+ * <p>
+ * Runs the complete uploader in-process against a {@link FakeIBroadcastServer}
+ * for synthetic libraries of different size distributions and reports files/s
+ * and MB/s. The md5 cache is deleted before every run, so hashing is included.
+ * <p>
+ * Tunable with system properties:
+ * <ul>
+ * <li><code>bench.libraryMB</code> size of each library (default 512)</li>
+ * <li><code>bench.distributions</code> comma separated list (default all)</li>
+ * <li><code>bench.runs</code> runs per library (default 3)</li>
+ * <li><code>bench.latencyMs</code> server latency per request (default 20)</li>
+ * <li><code>bench.bandwidthMBps</code> server bandwidth, 0 for unlimited (default 0)</li>
+ * <li><code>bench.connectionMBps</code> bandwidth per connection, 0 for unlimited (default 0)</li>
+ * <li><code>bench.errorRate</code> fraction of failed uploads (default 0)</li>
+ * <li><code>bench.args</code> extra uploader options, space separated</li>
+ * </ul>
+ */
+public class ThroughputBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        var libraryBytes = Long.getLong("bench.libraryMB", 512) * 1024 * 1024;
+        var distributions = System.getProperty("bench.distributions", "SMALL,HIRES,SKEWED").split(",");
+        var runs = Integer.getInteger("bench.runs", 3);
+        var extraArgs = System.getProperty("bench.args", "").trim();
+
+        try (var server = new FakeIBroadcastServer()) {
+            server.latency(Long.getLong("bench.latencyMs", 20))
+                    .bandwidth(Long.getLong("bench.bandwidthMBps", 0) * 1024 * 1024)
+                    .connectionBandwidth(Long.getLong("bench.connectionMBps", 0) * 1024 * 1024)
+                    .errorRate(Double.parseDouble(System.getProperty("bench.errorRate", "0")));
+
+            System.out.printf("%-8s %6s %8s %8s %9s %8s%n", "library", "files", "MB", "seconds", "files/s", "MB/s");
+            for (var name : distributions) {
+                var distribution = SyntheticLibrary.Distribution.valueOf(name.trim());
+                var dir = Files.createTempDirectory("ib-bench-");
+                var cacheDir = Files.createTempDirectory("ib-bench-cache-");
+                try {
+                    var files = SyntheticLibrary.create(dir, distribution, libraryBytes, 42);
+                    for (var run = 0; run < runs; run++) {
+                        // fresh md5 cache, so hashing is included
+                        SyntheticLibrary.delete(cacheDir);
+                        var uploadArgs = new ArrayList<String>();
+                        uploadArgs.add("--yes");
+                        uploadArgs.add("--login-url=" + server.loginUrl());
+                        uploadArgs.add("--sync-url=" + server.syncUrl());
+                        uploadArgs.add("--cache-dir=" + cacheDir);
+                        if (!extraArgs.isEmpty()) {
+                            uploadArgs.addAll(Arrays.asList(extraArgs.split("\\s+")));
+                        }
+                        uploadArgs.addAll(Arrays.asList("bench@example.com", "secret", dir.toString()));
+
+                        var bytesBefore = server.bytesReceived.get();
+                        var seconds = timeQuietly(uploadArgs.toArray(new String[0]));
+                        var mb = (server.bytesReceived.get() - bytesBefore) / (1024.0 * 1024.0);
+                        System.out.printf("%-8s %6d %8.1f %8.2f %9.1f %8.1f%n",
+                                distribution, files, mb, seconds, files / seconds, mb / seconds);
+                    }
+                } finally {
+                    SyntheticLibrary.delete(dir);
+                    if (Files.exists(cacheDir)) {
+                        SyntheticLibrary.delete(cacheDir);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Run the uploader with its console output suppressed.
+     *
+     * @return wall time in seconds
+     */
+    static double timeQuietly(String[] args) throws Exception {
+        var out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            var start = System.nanoTime();
+            iBroadcastUploader.main(args);
+            return (System.nanoTime() - start) / 1e9;
+        } finally {
+            System.setOut(out);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Hex encoding and decoding of md5 digests.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DigestBenchmark {
+
+    private final Workloads workloads = Workloads.get();
+    private Object digest;
+    private String hex;
+
+    @Setup
+    public void setUp() {
+        var random = ThreadLocalRandom.current();
+        digest = workloads.digest(random.nextLong(), random.nextLong());
+        hex = workloads.toHex(digest);
+    }
+
+    @Benchmark
+    public String toHex() {
+        return workloads.toHex(digest);
+    }
+
+    @Benchmark
+    public Object parseHex() {
+        return workloads.parseHex(hex);
+    }
+}
@@ -0,0 +1,271 @@
+package bench;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * In-process stand-in for the iBroadcast servers, for benchmarks and tests.
+ * <p>
+ * Serves the login, the md5 listing and multipart uploads on localhost, over
+ * plain http or, given an {@link SSLContext}, over https. Latency per request, aggregate and per connection upload
+ * bandwidth and the rate of failed uploads can be tuned to mimic different
+ * links and server load.
+ */
+public class FakeIBroadcastServer implements AutoCloseable {
+
+    private static final String[] SUPPORTED = {".mp3", ".flac", ".m4a", ".ogg", ".wav", ".wma", ".m3u"};
+
+    private final HttpServer server;
+    private final String scheme;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<String> knownMD5 = new ArrayList<>();
+    /**
+     * client ends of the connections seen, every connection has a port of its own
+     */
+    private final Set<InetSocketAddress> clients = ConcurrentHashMap.newKeySet();
+
+    private volatile long latencyMillis;
+    private volatile long bandwidth;
+    private volatile long connectionBandwidth;
+    private volatile double errorRate;
+    /**
+     * earliest time the next upload byte may be received, in nanos
+     */
+    private long nextFree = System.nanoTime();
+
+    public final AtomicInteger uploads = new AtomicInteger();
+    public final AtomicInteger failures = new AtomicInteger();
+    public final AtomicLong bytesReceived = new AtomicLong();
+
+    public FakeIBroadcastServer() throws IOException {
+        this(null);
+    }
+
+    /**
+     * @param sslContext holds the key and certificate to serve https with, or
+     *                   null for plain http
+     */
+    public FakeIBroadcastServer(SSLContext sslContext) throws IOException {
+        var address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        if (sslContext == null) {
+            server = HttpServer.create(address, 0);
+            scheme = "http";
+        } else {
+            var httpsServer = HttpsServer.create(address, 0);
+            httpsServer.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+            server = httpsServer;
+            scheme = "https";
+        }
+        server.createContext("/login", this::login);
+        server.createContext("/sync", this::sync);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String loginUrl() {
+        return scheme + "://localhost:" + server.getAddress().getPort() + "/login";
+    }
+
+    public String syncUrl() {
+        return scheme + "://localhost:" + server.getAddress().getPort() + "/sync";
+    }
+
+    /**
+     * @param latencyMillis delay before every response
+     */
+    public FakeIBroadcastServer latency(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+        return this;
+    }
+
+    /**
+     * @param bytesPerSecond aggregate upload bandwidth, 0 for unlimited
+     */
+    public FakeIBroadcastServer bandwidth(long bytesPerSecond) {
+        this.bandwidth = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * @param bytesPerSecond upload bandwidth of a single connection, 0 for unlimited
+     */
+    public FakeIBroadcastServer connectionBandwidth(long bytesPerSecond) {
+        this.connectionBandwidth = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * @param errorRate fraction of uploads answered with 503
+     */
+    public FakeIBroadcastServer errorRate(double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * @param md5 hex md5 sum the server reports as already uploaded
+     */
+    public synchronized FakeIBroadcastServer addKnownMD5(String md5) {
+        knownMD5.add(md5);
+        return this;
+    }
+
+    /**
+     * @return number of connections the clients opened so far
+     */
+    public int connections() {
+        return clients.size();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void login(HttpExchange exchange) throws IOException {
+        clients.add(exchange.getRemoteAddress());
+        drain(exchange.getRequestBody(), false);
+        var json = new StringBuilder("{\"user\":{\"id\":\"1\",\"token\":\"fake\"},\"supported\":[");
+        for (var i = 0; i < SUPPORTED.length; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"extension\":\"").append(SUPPORTED[i]).append("\"}");
+        }
+        json.append("]}");
+        respond(exchange, 200, json.toString());
+    }
+
+    private void sync(HttpExchange exchange) throws IOException {
+        clients.add(exchange.getRemoteAddress());
+        var contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (contentType != null && contentType.startsWith("multipart/form-data")) {
+            upload(exchange);
+        } else {
+            drain(exchange.getRequestBody(), false);
+            md5Listing(exchange);
+        }
+    }
+
+    private void md5Listing(HttpExchange exchange) throws IOException {
+        var json = new StringBuilder("{\"result\":true,\"md5\":[");
+        synchronized (this) {
+            for (var i = 0; i < knownMD5.size(); i++) {
+                json.append(i == 0 ? "\"" : ",\"").append(knownMD5.get(i)).append('"');
+            }
+        }
+        json.append("]}");
+        var acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            delay();
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, 0);
+            try (var out = new GZIPOutputStream(exchange.getResponseBody())) {
+                out.write(json.toString().getBytes(UTF_8));
+            }
+        } else {
+            respond(exchange, 200, json.toString());
+        }
+    }
+
+    private void upload(HttpExchange exchange) throws IOException {
+        drain(exchange.getRequestBody(), true);
+        if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            failures.incrementAndGet();
+            respond(exchange, 503, "{\"result\":false,\"message\":\"try again later\"}");
+        } else {
+            uploads.incrementAndGet();
+            respond(exchange, 200, "{\"result\":true}");
+        }
+    }
+
+    private void drain(InputStream in, boolean throttle) throws IOException {
+        var buffer = new byte[64 * 1024];
+        var start = System.nanoTime();
+        var received = 0L;
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            if (throttle) {
+                bytesReceived.addAndGet(n);
+                received += n;
+                pace(n);
+                paceConnection(start, received);
+            }
+        }
+    }
+
+    /**
+     * Sleep until the connection bandwidth allows the bytes received so far.
+     */
+    private void paceConnection(long start, long received) {
+        var bytesPerSecond = connectionBandwidth;
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+        var wait = start + received * 1_000_000_000L / bytesPerSecond - System.nanoTime();
+        if (wait > 0) {
+            sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+        }
+    }
+
+    /**
+     * Sleep until the aggregate bandwidth allows n more bytes.
+     */
+    private void pace(int n) {
+        var bytesPerSecond = bandwidth;
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+        long wait;
+        synchronized (this) {
+            var now = System.nanoTime();
+            nextFree = Math.max(nextFree, now) + n * 1_000_000_000L / bytesPerSecond;
+            wait = nextFree - now;
+        }
+        sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+    }
+
+    private void respond(HttpExchange exchange, int status, String body) throws IOException {
+        delay();
+        var bytes = body.getBytes(UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private void delay() {
+        sleep(latencyMillis, 0);
+    }
+
+    private static void sleep(long millis, int nanos) {
+        if (millis > 0 || nanos > 0) {
+            try {
+                Thread.sleep(millis, nanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Parsing a synthetic md5 listing, in memory and served by the fake server.
+ * <p>
+ * Run with <code>-prof gc</code> to compare the allocation of the streaming
+ * parser and the JSONObject tree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class ListingBenchmark {
+
+    @Param({"1000000"})
+    public int entries;
+
+    private final Workloads workloads = Workloads.get();
+    private byte[] listing;
+    private FakeIBroadcastServer server;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new FakeIBroadcastServer();
+        var random = new Random(1);
+        var json = new StringBuilder("{\"result\":true,\"md5\":[");
+        for (var i = 0; i < entries; i++) {
+            var md5 = String.format("%016x%016x", random.nextLong(), random.nextLong());
+            json.append(i == 0 ? "\"" : ",\"").append(md5).append('"');
+            server.addKnownMD5(md5);
+        }
+        listing = json.append("]}").toString().getBytes(UTF_8);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public int streaming() throws IOException {
+        return workloads.parseListing(new ByteArrayInputStream(listing));
+    }
+
+    @Benchmark
+    public int jsonTree() throws IOException {
+        return workloads.parseListingTree(new ByteArrayInputStream(listing));
+    }
+
+    @Benchmark
+    public int fetch() throws IOException {
+        return workloads.fetchListing(server.syncUrl());
+    }
+}
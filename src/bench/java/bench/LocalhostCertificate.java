@@ -0,0 +1,84 @@
+package bench;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.List;
+
+/**
+ * Self-signed certificate for localhost, so the {@link FakeIBroadcastServer}
+ * can serve https like the real servers.
+ * <p>
+ * The key pair is generated by the keytool of the running JDK into a PKCS12
+ * key store, which doubles as trust store of the clients.
+ */
+public class LocalhostCertificate {
+
+    public static final String PASSWORD = "benchmark";
+
+    private final Path keyStore;
+
+    private LocalhostCertificate(Path keyStore) {
+        this.keyStore = keyStore;
+    }
+
+    /**
+     * @param keyStore key store file to create, must not exist yet
+     */
+    public static LocalhostCertificate create(Path keyStore) throws IOException, InterruptedException {
+        var keytool = Path.of(System.getProperty("java.home"), "bin", "keytool").toString();
+        var process = new ProcessBuilder(List.of(keytool, "-genkeypair", "-alias", "localhost",
+                "-keyalg", "RSA", "-keysize", "2048", "-validity", "1", "-dname", "CN=localhost",
+                "-ext", "SAN=dns:localhost,ip:127.0.0.1",
+                "-storetype", "PKCS12", "-keystore", keyStore.toString(), "-storepass", PASSWORD))
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        if (process.waitFor() != 0) {
+            throw new IOException("keytool failed with exit code " + process.exitValue());
+        }
+        return new LocalhostCertificate(keyStore);
+    }
+
+    /**
+     * @return key store file, for <code>javax.net.ssl.trustStore</code> of other JVMs
+     */
+    public Path keyStore() {
+        return keyStore;
+    }
+
+    /**
+     * @return context serving the certificate
+     */
+    public SSLContext serverContext() throws IOException, GeneralSecurityException {
+        var keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(load(), PASSWORD.toCharArray());
+        var sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagers.getKeyManagers(), null, null);
+        return sslContext;
+    }
+
+    /**
+     * @return context trusting the certificate only
+     */
+    public SSLContext clientContext() throws IOException, GeneralSecurityException {
+        var trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(load());
+        var sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, trustManagers.getTrustManagers(), null);
+        return sslContext;
+    }
+
+    private KeyStore load() throws IOException, GeneralSecurityException {
+        var store = KeyStore.getInstance("PKCS12");
+        try (var in = Files.newInputStream(keyStore)) {
+            store.load(in, PASSWORD.toCharArray());
+        }
+        return store;
+    }
+}
@@ -0,0 +1,61 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * md5 hashing of files with different hash engines and buffer sizes.
+ * <p>
+ * The files are hashed from the page cache, so this measures the cpu and copy
+ * overhead of hashing, not the disk. The mmap engine maps files of 16 MB and
+ * more, so only the 100 MB file is hashed from mapped memory.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MD5Benchmark {
+
+    @Param({"1048576", "10485760", "104857600"})
+    public int fileSize;
+
+    @Param({"8192", "32768", "131072", "1048576"})
+    public int bufferSize;
+
+    @Param({"STREAM", "CHANNEL", "MMAP"})
+    public String engine;
+
+    private final Workloads workloads = Workloads.get();
+    private Path dir;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("ib-md5-bench-");
+        file = dir.resolve("track.flac").toFile();
+        SyntheticLibrary.createFile(file.toPath(), fileSize, 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticLibrary.delete(dir);
+    }
+
+    @Benchmark
+    public Object md5sum() throws IOException {
+        return workloads.md5sum(engine, file, bufferSize);
+    }
+}
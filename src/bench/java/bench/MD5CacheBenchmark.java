@@ -0,0 +1,104 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading, compacting and appending to the md5 cache file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class MD5CacheBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int entries;
+
+    private final Workloads workloads = Workloads.get();
+    private Path dir;
+    private File file;
+    private File legacyFile;
+    private Closeable cache;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("ib-cache-bench-");
+        file = dir.resolve("ib-md5-cache.bin").toFile();
+        legacyFile = dir.resolve("ib-md5-cache.json").toFile();
+        var random = new Random(1);
+        try (var cache = workloads.openCache(file, legacyFile)) {
+            for (var i = 0; i < entries; i++) {
+                workloads.putCache(cache, trackPath(i), random.nextLong(), random.nextLong(), random.nextLong());
+            }
+            workloads.compactCache(cache);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void open() throws IOException {
+        cache = workloads.openCache(file, legacyFile);
+    }
+
+    @TearDown(Level.Invocation)
+    public void close() throws IOException {
+        cache.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticLibrary.delete(dir);
+    }
+
+    /**
+     * open and read the whole cache file
+     */
+    @Benchmark
+    public void load() throws IOException {
+        workloads.openCache(file, legacyFile).close();
+    }
+
+    /**
+     * rewrite the whole cache file
+     */
+    @Benchmark
+    public void compact() throws IOException {
+        workloads.compactCache(cache);
+    }
+
+    /**
+     * append 1000 changed entries to the journal
+     */
+    @Benchmark
+    public void append() {
+        var random = new Random();
+        for (var i = 0; i < 1000; i++) {
+            workloads.putCache(cache, trackPath(i), random.nextLong(), random.nextLong(), random.nextLong());
+        }
+    }
+
+    private static String trackPath(int i) {
+        return String.format("artist-%d/album-%d/%02d some track title.flac", i / 48, i / 12, i % 12);
+    }
+}
@@ -0,0 +1,67 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scanning a generated directory tree for supported music files.
+ * <p>
+ * Measures the scanner with one and with several threads; compare with
+ * {@link WalkFileTreeBenchmark} for the sequential walk of former versions.
+ * The tree is in the page cache after the first iteration, so this measures
+ * the cpu side of the walk: visiting, filtering and collecting. On network
+ * shares the parallel scanner also overlaps the latency of listing
+ * directories.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ScanBenchmark {
+
+    private static final Set<String> EXTENSIONS = Set.of(".mp3", ".flac", ".m4a", ".ogg", ".wav", ".wma");
+
+    @Param({"10000", "100000"})
+    public int files;
+
+    @Param({"1", "8"})
+    public int threads;
+
+    private final Workloads workloads = Workloads.get();
+    private Path dir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("ib-scan-bench-");
+        SyntheticLibrary.createEmpty(dir, files);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticLibrary.delete(dir);
+    }
+
+    @Benchmark
+    public int listFileTree() throws IOException {
+        return workloads.listFileTree(dir.toFile(), EXTENSIONS, threads);
+    }
+}
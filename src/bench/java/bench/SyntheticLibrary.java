@@ -0,0 +1,145 @@
+package bench;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Generates music libraries of random files for benchmarks.
+ * <p>
+ * Every file starts with a unique random block, so all files have different
+ * md5 sums. The rest is filled from a shared random buffer, which keeps
+ * generation of large libraries cheap.
+ */
+public class SyntheticLibrary {
+
+    /**
+     * File size distributions.
+     */
+    public enum Distribution {
+        /**
+         * mp3 files of 3 to 8 MB
+         */
+        SMALL(".mp3") {
+            long nextSize(Random random) {
+                return mb(3) + (long) (random.nextDouble() * mb(5));
+            }
+        },
+        /**
+         * hi-res flac files of 30 to 200 MB
+         */
+        HIRES(".flac") {
+            long nextSize(Random random) {
+                return mb(30) + (long) (random.nextDouble() * mb(170));
+            }
+        },
+        /**
+         * mostly small mp3 files, with an occasional huge one
+         */
+        SKEWED(".mp3") {
+            long nextSize(Random random) {
+                return random.nextInt(50) == 0 ? mb(150) + (long) (random.nextDouble() * mb(150))
+                        : mb(2) + (long) (random.nextDouble() * mb(4));
+            }
+        };
+
+        final String extension;
+
+        Distribution(String extension) {
+            this.extension = extension;
+        }
+
+        abstract long nextSize(Random random);
+    }
+
+    private static final int FILES_PER_DIRECTORY = 12;
+    private static final byte[] FILLER = new byte[1024 * 1024];
+
+    static {
+        new Random(0).nextBytes(FILLER);
+    }
+
+    /**
+     * Create a library in dir.
+     *
+     * @param totalBytes approximate total size
+     * @return number of files created
+     */
+    public static int create(Path dir, Distribution distribution, long totalBytes, long seed) throws IOException {
+        var random = new Random(seed);
+        var bytes = 0L;
+        var count = 0;
+        while (bytes < totalBytes) {
+            var album = dir.resolve("artist-" + (count / (FILES_PER_DIRECTORY * 4)))
+                    .resolve("album-" + (count / FILES_PER_DIRECTORY));
+            Files.createDirectories(album);
+            var size = Math.min(distribution.nextSize(random), Math.max(totalBytes - bytes, 1024));
+            write(album.resolve(String.format("%02d track%s", count % FILES_PER_DIRECTORY, distribution.extension)),
+                    size, random);
+            bytes += size;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Create a single file of exactly the given size.
+     */
+    public static void createFile(Path file, long size, long seed) throws IOException {
+        write(file, size, new Random(seed));
+    }
+
+    /**
+     * Create a tree of empty files, for scanning benchmarks.
+     *
+     * @param files number of files
+     */
+    public static void createEmpty(Path dir, int files) throws IOException {
+        for (var i = 0; i < files; i++) {
+            var album = dir.resolve("artist-" + (i / (FILES_PER_DIRECTORY * 4)))
+                    .resolve("album-" + (i / FILES_PER_DIRECTORY));
+            Files.createDirectories(album);
+            var extension = i % 10 == 0 ? ".jpg" : i % 3 == 0 ? ".flac" : ".mp3";
+            Files.createFile(album.resolve(String.format("%02d track%s", i % FILES_PER_DIRECTORY, extension)));
+        }
+    }
+
+    public static void delete(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    private static void write(Path file, long size, Random random) throws IOException {
+        var head = new byte[(int) Math.min(size, 64)];
+        random.nextBytes(head);
+        try (var channel = FileChannel.open(file, CREATE_NEW, WRITE)) {
+            channel.write(ByteBuffer.wrap(head));
+            var remaining = size - head.length;
+            while (remaining > 0) {
+                var n = (int) Math.min(remaining, FILLER.length);
+                channel.write(ByteBuffer.wrap(FILLER, 0, n));
+                remaining -= n;
+            }
+        }
+    }
+
+    private static long mb(long mb) {
+        return mb * 1024 * 1024;
+    }
+}
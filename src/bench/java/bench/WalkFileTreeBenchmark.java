@@ -0,0 +1,80 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * The sequential walk of former versions, the baseline for
+ * {@link ScanBenchmark}: it matched every file name with regular expressions
+ * and collected the files in a sorted set.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class WalkFileTreeBenchmark {
+
+    private static final Set<String> EXTENSIONS = Set.of(".mp3", ".flac", ".m4a", ".ogg", ".wav", ".wma");
+
+    @Param({"10000", "100000"})
+    public int files;
+
+    private Path dir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("ib-walk-bench-");
+        SyntheticLibrary.createEmpty(dir, files);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticLibrary.delete(dir);
+    }
+
+    @Benchmark
+    public int walkFileTree() throws IOException {
+        var hiddenFile = Pattern.compile("^\\..*");
+        var extensionMatcher = Pattern.compile(".*(\\..{2,5})");
+        var fileTree = new TreeSet<File>();
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
+                var filename = path.getFileName().toString();
+                if (attrs.isRegularFile() && !hiddenFile.matcher(filename).matches()) {
+                    var extensionMatch = extensionMatcher.matcher(filename);
+                    if (extensionMatch.matches() && EXTENSIONS.contains(extensionMatch.group(1))) {
+                        fileTree.add(path.toFile());
+                    }
+                }
+                return super.visitFile(path, attrs);
+            }
+        });
+        return fileTree.size();
+    }
+}
@@ -0,0 +1,67 @@
+package bench;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+
+/**
+ * The uploader code exercised by the benchmarks.
+ * <p>
+ * JMH requires benchmarks to live in a named package, while the uploader
+ * lives in the unnamed one, which can't be referenced from named packages.
+ * The unnamed package implements this interface instead, see
+ * <code>BenchmarkWorkloads</code>. Uploader types are passed around as
+ * Object.
+ */
+public interface Workloads {
+
+    static Workloads get() {
+        try {
+            return (Workloads) Class.forName("BenchmarkWorkloads").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param engine name of the hash engine
+     */
+    Object md5sum(String engine, File file, int bufferSize) throws IOException;
+
+    Object digest(long hi, long lo);
+
+    String toHex(Object digest);
+
+    Object parseHex(String hex);
+
+    Closeable openCache(File file, File legacyFile) throws IOException;
+
+    void putCache(Closeable cache, String relativePath, long hi, long lo, long lastModified);
+
+    void compactCache(Closeable cache) throws IOException;
+
+    /**
+     * @return number of digests parsed
+     */
+    int parseListing(InputStream in) throws IOException;
+
+    /**
+     * Parse the md5 listing into a JSONObject tree and a set of strings, the way
+     * former versions did.
+     *
+     * @return number of digests parsed
+     */
+    int parseListingTree(InputStream in) throws IOException;
+
+    /**
+     * @return number of digests fetched
+     */
+    int fetchListing(String syncUrl) throws IOException;
+
+    /**
+     * @return number of supported files found
+     */
+    int listFileTree(File dir, Set<String> extensions, int threads) throws IOException;
+}
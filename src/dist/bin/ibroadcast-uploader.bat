@@ -0,0 +1,5 @@
+@echo off
+rem Runs the uploader on the bundled runtime, with the class-data-sharing
+rem archive trained for this image.
+for %%i in ("%~dp0..") do set APP_HOME=%%~fi
+"%APP_HOME%\bin\java.exe" -Xshare:auto -XX:SharedArchiveFile="%APP_HOME%\app\ibroadcast-uploader.jsa" -cp "%APP_HOME%\app\ibroadcast-uploader.jar" iBroadcastUploader %*
@@ -0,0 +1,70 @@
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.NoSuchFileException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with jitter for retrying transient failures.
+ * <p>
+ * The delay before retry n is a random value between half and all of
+ * <code>min(maxDelay, baseDelay * 2^(n-1))</code>, so parallel uploads failing
+ * at the same time don't retry in lockstep.
+ */
+class Backoff {
+
+    private final int retries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    /**
+     * @param retries         number of retries after the first attempt
+     * @param baseDelayMillis delay before the first retry
+     * @param maxDelayMillis  maximum delay
+     */
+    Backoff(int retries, long baseDelayMillis, long maxDelayMillis) {
+        this.retries = retries;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * @param attempt number of attempts made so far, starting at 1
+     * @return true if another attempt is allowed
+     */
+    boolean canRetry(int attempt) {
+        return attempt <= retries;
+    }
+
+    /**
+     * Sleep before the next attempt.
+     *
+     * @param attempt number of attempts made so far, starting at 1
+     */
+    void pause(int attempt) throws InterruptedException {
+        var cap = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 30));
+        Thread.sleep(ThreadLocalRandom.current().nextLong(cap / 2, cap + 1));
+    }
+
+    /**
+     * @return true if a request answered with this http status may succeed when retried
+     */
+    static boolean isTransient(int status) {
+        return status == 408 || status == 429 || status >= 500;
+    }
+
+    /**
+     * @return true if a request failing with this exception may succeed when retried;
+     * false for problems with the local file, also when wrapped, e.g. by the http client
+     */
+    static boolean isTransient(IOException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof FileNotFoundException
+                    || cause instanceof NoSuchFileException
+                    || cause instanceof AccessDeniedException) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,129 @@
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Token bucket limiting the aggregate upload bandwidth of all upload threads.
+ * <p>
+ * Upload bodies are read through {@link #throttle(InputStream)}, which waits
+ * in the copy loop until the bucket holds enough bytes. The rest of a request,
+ * connection setup and waiting for the server, isn't throttled, so parallel
+ * uploads still overlap those. An optional schedule sets different rates for
+ * times of the day.
+ */
+class BandwidthLimiter {
+
+    /**
+     * maximum burst, as time at the current rate
+     */
+    private static final long BURST_NANOS = 250_000_000L;
+
+    /**
+     * A daily time window with its own rate.
+     */
+    static class Window {
+        final LocalTime start;
+        final LocalTime end;
+        final long bytesPerSecond;
+
+        Window(LocalTime start, LocalTime end, long bytesPerSecond) {
+            this.start = start;
+            this.end = end;
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        boolean contains(LocalTime time) {
+            if (start.isBefore(end)) {
+                return !time.isBefore(start) && time.isBefore(end);
+            } else {
+                // spans midnight
+                return !time.isBefore(start) || time.isBefore(end);
+            }
+        }
+    }
+
+    private final long bytesPerSecond;
+    private final List<Window> schedule;
+    /**
+     * time when all bytes handed out so far have been sent at the current rate, in nanos
+     */
+    private long nextFree = System.nanoTime();
+
+    /**
+     * @param bytesPerSecond rate outside of the scheduled windows, 0 for unlimited
+     * @param schedule       daily windows with their own rates, the first matching one wins
+     */
+    BandwidthLimiter(long bytesPerSecond, List<Window> schedule) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.schedule = new ArrayList<>(schedule);
+    }
+
+    /**
+     * @return current rate in bytes/s, 0 for unlimited
+     */
+    long currentRate() {
+        if (!schedule.isEmpty()) {
+            var now = LocalTime.now();
+            for (var window : schedule) {
+                if (window.contains(now)) {
+                    return window.bytesPerSecond;
+                }
+            }
+        }
+        return bytesPerSecond;
+    }
+
+    /**
+     * Wait until the given number of bytes may be sent.
+     */
+    void acquire(int bytes) throws InterruptedIOException {
+        var rate = currentRate();
+        if (rate <= 0) {
+            return;
+        }
+        long wait;
+        synchronized (this) {
+            var now = System.nanoTime();
+            // unused bandwidth of the past is kept for a short burst only
+            nextFree = Math.max(nextFree, now - BURST_NANOS) + bytes * 1_000_000_000L / rate;
+            wait = nextFree - now;
+        }
+        if (wait > 0) {
+            try {
+                Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("upload interrupted");
+            }
+        }
+    }
+
+    /**
+     * @return stream reading from in at the rate of this limiter
+     */
+    InputStream throttle(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                var b = super.read();
+                if (b >= 0) {
+                    acquire(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                var n = super.read(b, off, len);
+                if (n > 0) {
+                    acquire(n);
+                }
+                return n;
+            }
+        };
+    }
+}
@@ -0,0 +1,131 @@
+import java.io.InterruptedIOException;
+import java.util.function.IntConsumer;
+
+/**
+ * Limits the number of uploads in flight.
+ * <p>
+ * When adaptive, the limit follows the observed throughput and latency in an
+ * additive increase / multiplicative decrease manner. At the end of every
+ * sampling window the limit
+ * <ul>
+ * <li>shrinks to 70% if uploads failed with a transient error, like http 429
+ * or 5xx, or a network error,</li>
+ * <li>grows by one while the aggregate bytes/s keep rising,</li>
+ * <li>shrinks by one if throughput doesn't rise anymore but the latency per
+ * byte climbs above twice the best seen, which means more uploads in flight
+ * only queue up in front of the bottleneck.</li>
+ * </ul>
+ * Without adaptation the limit stays at the maximum.
+ */
+class ConcurrencyLimiter {
+
+    private static final long MIN_WINDOW_NANOS = 1_000_000_000L;
+    private static final int INITIAL_LIMIT = 4;
+
+    private final int min;
+    private final int max;
+    private final boolean adaptive;
+    private final IntConsumer onChange;
+
+    private int limit;
+    private int inFlight;
+
+    // current sampling window
+    private long windowStart = System.nanoTime();
+    private int completions;
+    private long bytes;
+    private long latencyNanos;
+    private boolean overloaded;
+
+    private double previousThroughput;
+    private double bestLatencyPerByte = Double.MAX_VALUE;
+
+    /**
+     * @param min      minimum limit
+     * @param max      maximum limit
+     * @param adaptive adapt the limit, otherwise it stays at max
+     * @param onChange called with the new limit whenever it changes
+     */
+    ConcurrencyLimiter(int min, int max, boolean adaptive, IntConsumer onChange) {
+        this.min = Math.min(min, max);
+        this.max = max;
+        this.adaptive = adaptive;
+        this.onChange = onChange;
+        this.limit = adaptive ? Math.max(this.min, Math.min(INITIAL_LIMIT, max)) : max;
+    }
+
+    synchronized int limit() {
+        return limit;
+    }
+
+    /**
+     * Wait until another upload may start.
+     */
+    synchronized void acquire() throws InterruptedIOException {
+        try {
+            while (inFlight >= limit) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("upload interrupted");
+        }
+        inFlight++;
+    }
+
+    /**
+     * Report the outcome of an upload started with {@link #acquire()}.
+     *
+     * @param bytes      bytes uploaded, 0 if the upload failed
+     * @param nanos      duration of the upload
+     * @param overloaded true if the upload failed with a sign of overload
+     */
+    synchronized void release(long bytes, long nanos, boolean overloaded) {
+        inFlight--;
+        if (adaptive) {
+            sample(bytes, nanos, overloaded);
+        }
+        notifyAll();
+    }
+
+    private void sample(long bytes, long nanos, boolean overloaded) {
+        this.completions++;
+        this.bytes += bytes;
+        if (bytes > 0) {
+            this.latencyNanos += nanos;
+        }
+        this.overloaded |= overloaded;
+
+        var now = System.nanoTime();
+        var elapsed = now - windowStart;
+        if (elapsed < MIN_WINDOW_NANOS || (completions < limit && !this.overloaded)) {
+            return;
+        }
+
+        var newLimit = limit;
+        var throughput = this.bytes * 1e9 / elapsed;
+        if (this.overloaded) {
+            newLimit = Math.max(min, (int) (limit * 0.7));
+        } else if (this.bytes > 0) {
+            var latencyPerByte = (double) latencyNanos / this.bytes;
+            bestLatencyPerByte = Math.min(bestLatencyPerByte, latencyPerByte);
+            if (throughput > previousThroughput * 1.05) {
+                newLimit = Math.min(max, limit + 1);
+            } else if (latencyPerByte > 2 * bestLatencyPerByte) {
+                newLimit = Math.max(min, limit - 1);
+            }
+        }
+        previousThroughput = throughput;
+
+        windowStart = now;
+        completions = 0;
+        this.bytes = 0;
+        latencyNanos = 0;
+        this.overloaded = false;
+
+        if (newLimit != limit) {
+            limit = newLimit;
+            onChange.accept(newLimit);
+        }
+    }
+}
@@ -0,0 +1,287 @@
+import java.io.Closeable;
+import java.io.PrintStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Console output, rendered by a single thread.
+ * <p>
+ * Upload and hash workers only put events into a lock-free queue, they never
+ * wait for the console. A renderer thread drains the queue a few times per
+ * second and writes all pending lines at once, so a slow terminal or log pipe
+ * doesn't stall the uploads, and line prefixes are formatted there and not on
+ * the workers.
+ */
+class Console implements Closeable {
+
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * What is written to the console.
+     */
+    enum Mode {
+        /**
+         * {@link #TTY} on a terminal, {@link #LOG} otherwise
+         */
+        AUTO,
+        /**
+         * a line for every file, progress reports as lines
+         */
+        LOG,
+        /**
+         * messages, retries and failures as lines below a progress line which
+         * is updated in place
+         */
+        TTY,
+        /**
+         * only prompts, failures, errors and the summary
+         */
+        QUIET
+    }
+
+    /**
+     * Kinds of events.
+     */
+    enum Kind {
+        INFO,
+        /**
+         * part of a question to the user, shown in every mode
+         */
+        PROMPT,
+        PROGRESS,
+        UPLOADING,
+        UPLOADED,
+        SKIPPING,
+        DUPLICATE,
+        RETRYING,
+        FAILED,
+        ERROR,
+        SUMMARY
+    }
+
+    private final PrintStream out;
+    private final Mode mode;
+    private final int columns;
+    private final ConcurrentLinkedQueue<Event> events = new ConcurrentLinkedQueue<>();
+    private final Thread renderer;
+    private volatile boolean closed;
+
+    // renderer state, guarded by this
+    private final StringBuilder buffer = new StringBuilder();
+    private String status = "";
+    private int total = -1;
+    private int width;
+
+    /**
+     * Start rendering to {@link System#out}.
+     */
+    Console(Mode mode) {
+        this.out = System.out;
+        this.mode = mode == Mode.AUTO ? (System.console() != null ? Mode.TTY : Mode.LOG) : mode;
+        this.columns = columns();
+        this.renderer = new Thread(() -> {
+            while (!closed) {
+                render();
+                LockSupport.parkNanos(TICK_NANOS);
+            }
+        }, "console");
+        renderer.setDaemon(true);
+        renderer.start();
+    }
+
+    /**
+     * @return whether progress is shown in place
+     */
+    boolean isTTY() {
+        return mode == Mode.TTY;
+    }
+
+    void message(String text) {
+        events.add(new Event(Kind.INFO, text));
+    }
+
+    /**
+     * One line of progress, the status line on a terminal.
+     */
+    void progress(String text) {
+        events.add(new Event(Kind.PROGRESS, text));
+    }
+
+    /**
+     * Part of a question to the user, shown even in quiet mode.
+     */
+    void prompt(String text) {
+        events.add(new Event(Kind.PROMPT, text));
+    }
+
+    void error(String text) {
+        events.add(new Event(Kind.ERROR, text));
+    }
+
+    void summary(String text) {
+        events.add(new Event(Kind.SUMMARY, text));
+    }
+
+    /**
+     * Report the state of a file.
+     *
+     * @param count  number of the file in this run
+     * @param total  number of files in this run, 0 if unknown
+     * @param detail reason of a retry or failure, may be null
+     */
+    void file(Kind kind, int count, int total, String path, String detail) {
+        events.add(new Event(kind, count, total, path, detail));
+    }
+
+    /**
+     * Write all pending events, e.g. before prompting for input.
+     */
+    void flush() {
+        render();
+    }
+
+    /**
+     * Write all pending events and stop the renderer.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(renderer);
+        try {
+            renderer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            render();
+            if (!status.isEmpty()) {
+                out.print("\r\033[K");
+                status = "";
+            }
+            out.flush();
+        }
+    }
+
+    private synchronized void render() {
+        Event event;
+        var statusChanged = false;
+        while ((event = events.poll()) != null) {
+            if (event.kind == Kind.PROGRESS && mode == Mode.TTY) {
+                status = truncate(event.text.strip());
+                statusChanged = true;
+            } else if (isShown(event.kind)) {
+                append(event);
+            }
+        }
+        if (buffer.length() == 0 && !statusChanged) {
+            return;
+        }
+        if (mode == Mode.TTY && (statusChanged || !status.isEmpty())) {
+            // move the status line below the new lines
+            out.print("\r\033[K");
+            out.print(buffer);
+            out.print(status);
+        } else {
+            out.print(buffer);
+        }
+        out.flush();
+        buffer.setLength(0);
+    }
+
+    private boolean isShown(Kind kind) {
+        switch (mode) {
+            case QUIET:
+                return kind == Kind.PROMPT || kind == Kind.FAILED || kind == Kind.ERROR || kind == Kind.SUMMARY;
+            case TTY:
+                return kind != Kind.UPLOADING && kind != Kind.UPLOADED
+                        && kind != Kind.SKIPPING && kind != Kind.DUPLICATE;
+            default:
+                return true;
+        }
+    }
+
+    private void append(Event event) {
+        if (event.path == null) {
+            buffer.append(event.text);
+            return;
+        }
+        if (event.total != total) {
+            total = event.total;
+            width = total > 0 ? Integer.toString(total).length() : 0;
+        }
+        var count = Integer.toString(event.count);
+        for (var i = count.length(); i < width; i++) {
+            buffer.append(' ');
+        }
+        buffer.append(count);
+        if (total > 0) {
+            buffer.append('/').append(total);
+        }
+        buffer.append(": ").append(label(event.kind)).append(event.path);
+        if (event.text != null) {
+            buffer.append(" (").append(event.text).append(')');
+        }
+        buffer.append('\n');
+    }
+
+    private static String label(Kind kind) {
+        switch (kind) {
+            case UPLOADING:
+                return "Uploading: ";
+            case UPLOADED:
+                return "Uploaded:  ";
+            case SKIPPING:
+                return "Skipping:  ";
+            case DUPLICATE:
+                return "Duplicate: ";
+            case RETRYING:
+                return "Retrying:  ";
+            case FAILED:
+                return "Failed:    ";
+            default:
+                return "";
+        }
+    }
+
+    private String truncate(String line) {
+        return line.length() < columns ? line : line.substring(0, columns - 1);
+    }
+
+    /**
+     * @return width of the terminal, if the shell exports it
+     */
+    private static int columns() {
+        try {
+            return Math.max(20, Integer.parseInt(System.getenv().getOrDefault("COLUMNS", "80")));
+        } catch (NumberFormatException e) {
+            return 80;
+        }
+    }
+
+    private static class Event {
+        final Kind kind;
+        final int count;
+        final int total;
+        /**
+         * null for messages
+         */
+        final String path;
+        /**
+         * the message, or the detail of a file event
+         */
+        final String text;
+
+        Event(Kind kind, String text) {
+            this(kind, 0, 0, null, text);
+        }
+
+        Event(Kind kind, int count, int total, String path, String text) {
+            this.kind = kind;
+            this.count = count;
+            this.total = total;
+            this.path = path;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+import org.json.JSONArray;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Content types of the supported media files, by extension.
+ * <p>
+ * The table is built once from the supported file types the server sends at
+ * login, so an upload costs a map lookup and doesn't load and search the
+ * mime type files of the platform.
+ */
+class ContentTypes {
+
+    static final String DEFAULT = "application/octet-stream";
+
+    /**
+     * for extensions the server gives no content type for
+     */
+    private static final Map<String, String> WELL_KNOWN = Map.ofEntries(
+            Map.entry(".aac", "audio/aac"),
+            Map.entry(".aif", "audio/x-aiff"),
+            Map.entry(".aiff", "audio/x-aiff"),
+            Map.entry(".ape", "audio/x-ape"),
+            Map.entry(".flac", "audio/flac"),
+            Map.entry(".m4a", "audio/mp4"),
+            Map.entry(".mp2", "audio/mpeg"),
+            Map.entry(".mp3", "audio/mpeg"),
+            Map.entry(".mp4", "video/mp4"),
+            Map.entry(".ogg", "audio/ogg"),
+            Map.entry(".opus", "audio/opus"),
+            Map.entry(".wav", "audio/wav"),
+            Map.entry(".wma", "audio/x-ms-wma"),
+            Map.entry(".wv", "audio/x-wavpack"));
+
+    private final Map<String, String> types;
+
+    private ContentTypes(Map<String, String> types) {
+        this.types = types;
+    }
+
+    /**
+     * @param supported supported file types from the login response, objects
+     *                  with an extension and optionally a content type
+     */
+    static ContentTypes of(JSONArray supported) {
+        var types = new HashMap<String, String>();
+        for (var i = 0; supported != null && i < supported.length(); i++) {
+            var entry = supported.getJSONObject(i);
+            var extension = entry.getString("extension").toLowerCase(Locale.ROOT);
+            var type = entry.optString("type");
+            types.put(extension, type.indexOf('/') > 0 ? type : WELL_KNOWN.getOrDefault(extension, DEFAULT));
+        }
+        return new ContentTypes(types);
+    }
+
+    /**
+     * @return content type of the file, {@link #DEFAULT} for unknown extensions
+     */
+    String get(File file) {
+        var name = file.getName();
+        var dot = name.lastIndexOf('.');
+        if (dot < 0) {
+            return DEFAULT;
+        }
+        return types.getOrDefault(name.substring(dot).toLowerCase(Locale.ROOT), DEFAULT);
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * An md5 digest, held as two longs.
+ * <p>
+ * Hex strings are only produced for display and for the wire.
+ */
+final class Digest {
+
+    private static final char[] DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+
+    /**
+     * first 8 bytes, big endian
+     */
+    final long hi;
+    /**
+     * last 8 bytes, big endian
+     */
+    final long lo;
+
+    Digest(long hi, long lo) {
+        this.hi = hi;
+        this.lo = lo;
+    }
+
+    /**
+     * @param data 16 byte md5 digest
+     */
+    static Digest of(byte[] data) {
+        return new Digest(toLong(data, 0), toLong(data, 8));
+    }
+
+    /**
+     * @param hex 32 hex digits, case insensitive
+     * @throws IllegalArgumentException if hex is not a valid md5 hex string
+     */
+    static Digest parseHex(CharSequence hex) {
+        if (hex.length() != 32) {
+            throw new IllegalArgumentException("Not an md5 hex string: " + hex);
+        }
+        return new Digest(parseHex(hex, 0), parseHex(hex, 16));
+    }
+
+    String toHex() {
+        var out = new char[32];
+        toHex(hi, out, 0);
+        toHex(lo, out, 16);
+        return new String(out);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Digest)) {
+            return false;
+        }
+        var other = (Digest) o;
+        return hi == other.hi && lo == other.lo;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(hi ^ lo);
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+
+    private static long toLong(byte[] data, int offset) {
+        var result = 0L;
+        for (var i = offset; i < offset + 8; i++) {
+            result = result << 8 | (data[i] & 0xFF);
+        }
+        return result;
+    }
+
+    private static long parseHex(CharSequence hex, int offset) {
+        var result = 0L;
+        for (var i = offset; i < offset + 16; i++) {
+            var digit = Character.digit(hex.charAt(i), 16);
+            if (digit < 0) {
+                throw new IllegalArgumentException("Not an md5 hex string: " + hex);
+            }
+            result = result << 4 | digit;
+        }
+        return result;
+    }
+
+    private static void toHex(long value, char[] out, int offset) {
+        for (var i = offset + 15; i >= offset; i--) {
+            out[i] = DIGITS[(int) value & 0xF];
+            value >>>= 4;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Parallel scanner for supported media files.
+ * <p>
+ * Every directory is listed by its own fork/join task, so idle threads steal
+ * subtrees from busy ones and the latency of listing directories on network
+ * shares overlaps. Files are matched by comparing the suffix of the file name
+ * with the supported extensions in place, and handed to the sink as they are
+ * found, in no particular order. Symbolic links are not followed.
+ * <p>
+ * With an md5 cache, the scanner records a {@link DirectorySummary} for every
+ * directory it lists. A directory whose summary is still valid is not listed
+ * again: its tracks come straight from the cache, with their md5 sums, and
+ * only its subdirectories are looked at. So an unchanged library costs one
+ * stat per directory instead of one per file. Files modified in place, which
+ * leaves the modification time of the directory alone, are only noticed by a
+ * full scan: it lists every directory, so every file is stat'ed and compared
+ * with the cache again.
+ */
+class DirectoryScanner {
+
+    /**
+     * directories with changes more recent than this are listed again next
+     * time, the change may not be complete yet
+     */
+    private static final long SETTLE_MILLIS = 60_000;
+
+    private final String[] extensions;
+    private final int threads;
+    private final MD5Cache cache;
+    private final boolean fullScan;
+
+    /**
+     * @param extensions supported media file extensions, including the dot
+     * @param threads    number of threads listing directories
+     */
+    DirectoryScanner(Set<String> extensions, int threads) {
+        this(extensions, threads, null, true);
+    }
+
+    /**
+     * @param extensions supported media file extensions, including the dot
+     * @param threads    number of threads listing directories
+     * @param cache      md5 cache holding the directory summaries, may be null
+     * @param fullScan   list all directories, but still record their summaries
+     */
+    DirectoryScanner(Set<String> extensions, int threads, MD5Cache cache, boolean fullScan) {
+        this.extensions = extensions.toArray(new String[0]);
+        this.threads = threads;
+        this.cache = cache;
+        this.fullScan = fullScan;
+    }
+
+    /**
+     * Find supported media files.
+     *
+     * @param dir  top-level directory containing media files
+     * @param sink receives the tracks found, called concurrently from the
+     *             scanner threads. Tracks from unchanged directories have
+     *             their md5 sum set already.
+     */
+    void scan(File dir, Consumer<Track> sink) throws IOException {
+        var attrs = Files.readAttributes(dir.toPath(), BasicFileAttributes.class);
+        var pool = new ForkJoinPool(threads, forkJoinPool -> {
+            var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("walk-" + (thread.getPoolIndex() + 1));
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+        try {
+            pool.submit(new ListDirectory(dir.toPath(), "", attrs, sink)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("scan interrupted");
+        } catch (ExecutionException e) {
+            var cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            // interrupts threads blocked in the sink
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return whether the file name is visible and ends with a supported extension
+     */
+    boolean isSupported(String filename) {
+        if (filename.startsWith(".")) {
+            return false;
+        }
+        var dot = filename.lastIndexOf('.');
+        if (dot <= 0) {
+            return false;
+        }
+        var length = filename.length() - dot;
+        for (var extension : extensions) {
+            if (extension.length() == length && filename.regionMatches(dot, extension, 0, length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private class ListDirectory extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final String relativePath;
+        private final BasicFileAttributes attrs;
+        private final Consumer<Track> sink;
+
+        /**
+         * @param relativePath relative path of the directory, empty for the top-level directory
+         * @param attrs        attributes of the directory, read before listing it
+         */
+        ListDirectory(Path dir, String relativePath, BasicFileAttributes attrs, Consumer<Track> sink) {
+            this.dir = dir;
+            this.relativePath = relativePath;
+            this.attrs = attrs;
+            this.sink = sink;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                if (cache == null || fullScan || !reuseSummary()) {
+                    list();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (DirectoryIteratorException e) {
+                throw new UncheckedIOException(e.getCause());
+            }
+        }
+
+        /**
+         * take the tracks from the cache if the directory is unchanged
+         *
+         * @return false if the directory needs to be listed
+         */
+        private boolean reuseSummary() throws IOException {
+            var summary = cache.getDirectory(relativePath);
+            if (summary == null || summary.lastModified != attrs.lastModifiedTime().toMillis()) {
+                return false;
+            }
+            var tracks = new ArrayList<Track>(summary.files.length);
+            var aggregate = 0L;
+            for (var name : summary.files) {
+                var track = cache.getTrack(dir.resolve(name).toFile(), child(name));
+                if (track == null) {
+                    return false;
+                }
+                aggregate += DirectorySummary.aggregate(name, track.lastModified, track.size);
+                tracks.add(track);
+            }
+            if (aggregate != summary.aggregate) {
+                return false;
+            }
+            var subdirectories = new ArrayList<ListDirectory>(summary.directories.length);
+            for (var name : summary.directories) {
+                var path = dir.resolve(name);
+                try {
+                    var subdirectoryAttrs = Files.readAttributes(path, BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
+                    if (!subdirectoryAttrs.isDirectory()) {
+                        return false;
+                    }
+                    subdirectories.add(new ListDirectory(path, child(name), subdirectoryAttrs, sink));
+                } catch (NoSuchFileException e) {
+                    return false;
+                }
+            }
+            cache.reused(tracks.size());
+            tracks.forEach(sink);
+            invokeAll(subdirectories);
+            return true;
+        }
+
+        private void list() throws IOException {
+            var lastModified = attrs.lastModifiedTime().toMillis();
+            var now = System.currentTimeMillis();
+            var settled = now - lastModified >= SETTLE_MILLIS;
+            var files = new ArrayList<String>();
+            var directories = new ArrayList<String>();
+            var aggregate = 0L;
+            var subdirectories = new ArrayList<ListDirectory>();
+            try (var entries = Files.newDirectoryStream(dir)) {
+                for (var path : entries) {
+                    var name = path.getFileName().toString();
+                    var entryAttrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (entryAttrs.isDirectory()) {
+                        var task = new ListDirectory(path, child(name), entryAttrs, sink);
+                        task.fork();
+                        subdirectories.add(task);
+                        directories.add(name);
+                    } else if (entryAttrs.isRegularFile() && isSupported(name)) {
+                        var fileModified = entryAttrs.lastModifiedTime().toMillis();
+                        settled &= now - fileModified >= SETTLE_MILLIS;
+                        files.add(name);
+                        aggregate += DirectorySummary.aggregate(name, fileModified, entryAttrs.size());
+                        sink.accept(new Track(cache, path.toFile(), child(name), entryAttrs.size(), fileModified));
+                    }
+                }
+            }
+            if (cache != null && settled) {
+                var summary = new DirectorySummary(lastModified, files, directories, aggregate);
+                if (!summary.equals(cache.getDirectory(relativePath))) {
+                    cache.putDirectory(relativePath, summary);
+                }
+            }
+            for (var task : subdirectories) {
+                task.join();
+            }
+        }
+
+        private String child(String name) {
+            return relativePath.isEmpty() ? name : relativePath + File.separator + name;
+        }
+    }
+}
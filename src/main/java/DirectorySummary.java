@@ -0,0 +1,76 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * What the scanner found in a directory the last time it was listed.
+ * <p>
+ * Creating, deleting or renaming an entry changes the modification time of
+ * the directory. So as long as it is unchanged, the names of the supported
+ * files and subdirectories are still the same and the directory needn't be
+ * listed again. The aggregate of the name, modification time and size of the
+ * files ties the summary to the md5 cache: if a cache record was replaced
+ * since, e.g. because a full scan or the watcher hashed a file modified in
+ * place, the aggregate no longer matches and the directory is listed again.
+ */
+class DirectorySummary {
+
+    /**
+     * modification time of the directory, in millis
+     */
+    final long lastModified;
+    /**
+     * names of the supported files
+     */
+    final String[] files;
+    /**
+     * names of the subdirectories
+     */
+    final String[] directories;
+    final long aggregate;
+
+    DirectorySummary(long lastModified, String[] files, String[] directories, long aggregate) {
+        this.lastModified = lastModified;
+        this.files = files;
+        this.directories = directories;
+        this.aggregate = aggregate;
+    }
+
+    DirectorySummary(long lastModified, List<String> files, List<String> directories, long aggregate) {
+        this(lastModified, files.toArray(new String[0]), directories.toArray(new String[0]), aggregate);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof DirectorySummary)) {
+            return false;
+        }
+        var other = (DirectorySummary) o;
+        return lastModified == other.lastModified && aggregate == other.aggregate
+                && Arrays.equals(files, other.files) && Arrays.equals(directories, other.directories);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(lastModified) * 31 + Long.hashCode(aggregate);
+    }
+
+    /**
+     * Hash of a file, to be summed up over the files of a directory, so that
+     * the order of the files doesn't matter.
+     */
+    static long aggregate(String name, long lastModified, long size) {
+        var h = name.hashCode() * 0x9e3779b97f4a7c15L;
+        h ^= lastModified * 0xc2b2ae3d27d4eb4fL;
+        h ^= size * 0x165667b19e3779f9L;
+        // murmur3 finalizer
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
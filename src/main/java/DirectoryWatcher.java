@@ -0,0 +1,204 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiPredicate;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Watches directory trees for new and modified files.
+ * <p>
+ * Every directory of the tree is registered with a {@link WatchService},
+ * directories created later are registered as they appear. A changed file is
+ * reported once it is stable, i.e. no event arrived for it during the delay
+ * and its size and modification time didn't change in the meantime, so files
+ * still being ripped or copied are not picked up half written. If the watch
+ * service loses events, all trees are rescanned.
+ */
+class DirectoryWatcher implements Closeable {
+
+    private final Collection<Path> roots;
+    private final BiPredicate<Path, BasicFileAttributes> filter;
+    private final long delayNanos;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final Map<Path, Change> pending = new LinkedHashMap<>();
+
+    /**
+     * Register the directory trees.
+     *
+     * @param roots       top-level directories, on the same file system
+     * @param filter      selects the files to report
+     * @param delayMillis time a file must be left alone before it is reported
+     */
+    DirectoryWatcher(Collection<Path> roots, BiPredicate<Path, BasicFileAttributes> filter, long delayMillis)
+            throws IOException {
+        this.roots = roots;
+        this.filter = filter;
+        this.delayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        this.watchService = roots.iterator().next().getFileSystem().newWatchService();
+        for (var root : roots) {
+            register(root, false);
+        }
+    }
+
+    /**
+     * Wait for changed files.
+     *
+     * @return the changed files which are stable now, at least one
+     */
+    List<Change> take() throws IOException, InterruptedException {
+        while (true) {
+            WatchKey key;
+            if (pending.isEmpty()) {
+                key = watchService.take();
+            } else {
+                key = watchService.poll(delayNanos, TimeUnit.NANOSECONDS);
+            }
+            while (key != null) {
+                process(key);
+                key = watchService.poll();
+            }
+            var stable = stableChanges();
+            if (!stable.isEmpty()) {
+                return stable;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private void process(WatchKey key) throws IOException {
+        var dir = directories.get(key);
+        for (var event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                for (var root : roots) {
+                    register(root, true);
+                }
+            } else if (dir != null) {
+                var path = dir.resolve((Path) event.context());
+                if (event.kind() == ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    // files may have been created before the directory was registered
+                    register(path, true);
+                } else {
+                    changed(path);
+                }
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+
+    /**
+     * register a directory and its subdirectories
+     *
+     * @param collect whether to report the files found as well
+     */
+    private void register(Path dir, boolean collect) throws IOException {
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    directories.put(dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY), dir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (collect) {
+                        changed(file, attrs);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (NoSuchFileException e) {
+            // deleted again already
+        }
+    }
+
+    private void changed(Path path) throws IOException {
+        try {
+            changed(path, Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
+        } catch (NoSuchFileException e) {
+            pending.remove(path);
+        }
+    }
+
+    private void changed(Path path, BasicFileAttributes attrs) {
+        if (filter.test(path, attrs)) {
+            pending.put(path, new Change(path, attrs, System.nanoTime()));
+        }
+    }
+
+    /**
+     * remove the pending changes which have settled
+     */
+    private List<Change> stableChanges() throws IOException {
+        var stable = new ArrayList<Change>();
+        var now = System.nanoTime();
+        for (Iterator<Map.Entry<Path, Change>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+            var entry = it.next();
+            var change = entry.getValue();
+            if (now - change.seen < delayNanos) {
+                continue;
+            }
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(change.path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (NoSuchFileException e) {
+                it.remove();
+                continue;
+            }
+            if (attrs.size() == change.size && attrs.lastModifiedTime().toMillis() == change.lastModified) {
+                it.remove();
+                stable.add(change);
+            } else {
+                // still being written, look again later
+                entry.setValue(new Change(change.path, attrs, now));
+            }
+        }
+        return stable;
+    }
+
+    /**
+     * A new or modified file.
+     */
+    static class Change {
+        final Path path;
+        final long size;
+        final long lastModified;
+        /**
+         * {@link System#nanoTime()} when the change was last seen
+         */
+        private final long seen;
+
+        private Change(Path path, BasicFileAttributes attrs, long seen) {
+            this.path = path;
+            this.size = attrs.size();
+            this.lastModified = attrs.lastModifiedTime().toMillis();
+            this.seen = seen;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Ways to compute the md5 sum of a file.
+ */
+enum HashEngine {
+
+    /**
+     * {@link DigestInputStream} reading into a heap buffer
+     */
+    STREAM {
+        @Override
+        Digest md5sum(File file, int bufferSize) throws IOException {
+            var buffer = new byte[bufferSize];
+            var digest = md5Digest.get();
+            try (var dis = new DigestInputStream(new FileInputStream(file), digest)) {
+                while (true) {
+                    if (dis.read(buffer) == -1) {
+                        break;
+                    }
+                }
+            }
+            return Digest.of(digest.digest());
+        }
+    },
+
+    /**
+     * {@link FileChannel} reading into a reused direct buffer, which is passed
+     * to the digest as is
+     */
+    CHANNEL {
+        @Override
+        Digest md5sum(File file, int bufferSize) throws IOException {
+            var digest = md5Digest.get();
+            try (var channel = FileChannel.open(file.toPath(), READ)) {
+                update(digest, channel, directBuffer(bufferSize));
+            }
+            return Digest.of(digest.digest());
+        }
+    },
+
+    /**
+     * like {@link #CHANNEL}, but large files are memory-mapped in regions and
+     * hashed straight from the page cache
+     */
+    MMAP {
+        @Override
+        Digest md5sum(File file, int bufferSize) throws IOException {
+            var digest = md5Digest.get();
+            try (var channel = FileChannel.open(file.toPath(), READ)) {
+                var size = channel.size();
+                if (size < MMAP_THRESHOLD) {
+                    update(digest, channel, directBuffer(bufferSize));
+                } else {
+                    for (var position = 0L; position < size; position += MMAP_REGION) {
+                        // pages are faulted in as the digest reads them, the kernel reads ahead
+                        digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                                Math.min(MMAP_REGION, size - position)));
+                    }
+                }
+            }
+            return Digest.of(digest.digest());
+        }
+    };
+
+    private static final long MMAP_THRESHOLD = 16L * 1024 * 1024;
+    private static final long MMAP_REGION = 64L * 1024 * 1024;
+
+    private static final ThreadLocal<MessageDigest> md5Digest = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    });
+
+    private static final ThreadLocal<ByteBuffer> directBuffer = new ThreadLocal<>();
+
+    /**
+     * Compute the md5 sum of a file.
+     *
+     * @param bufferSize size of the read buffer
+     */
+    abstract Digest md5sum(File file, int bufferSize) throws IOException;
+
+    private static void update(MessageDigest digest, FileChannel channel, ByteBuffer buffer)
+            throws IOException {
+        buffer.clear();
+        while (channel.read(buffer) != -1) {
+            buffer.flip();
+            digest.update(buffer);
+            buffer.clear();
+        }
+    }
+
+    /**
+     * @return the direct buffer of the current thread, with at least the given capacity
+     */
+    private static ByteBuffer directBuffer(int capacity) {
+        var buffer = directBuffer.get();
+        if (buffer == null || buffer.capacity() < capacity) {
+            buffer = ByteBuffer.allocateDirect(capacity);
+            directBuffer.set(buffer);
+        }
+        return buffer;
+    }
+}
@@ -1,129 +1,430 @@
 import org.json.JSONObject;
 import org.json.JSONTokener;
-import org.json.JSONWriter;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.security.DigestInputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.util.concurrent.ConcurrentHashMap;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
-class MD5Cache {
+/**
+ * Cache of md5 sums of local files, keyed by relative path.
+ * <p>
+ * The cache is stored in a compact binary file: a header followed by records
+ * of a length-prefixed UTF-8 path, the 16 byte digest, the modification time
+ * and the size of a file. The file is an append-only journal: every newly
+ * computed md5 sum is appended right away, later records supersede earlier
+ * ones with the same path. So a crashed run loses at most the record being
+ * written, and an unchanged library costs no writes at all. The file is
+ * compacted when it holds more superseded records than live ones.
+ * <p>
+ * The cache also holds the {@link DirectorySummary summaries} of the
+ * directories scanned, in records of their own.
+ */
+class MD5Cache implements Closeable {
 
-    private static final char[] DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
     private static final int bufferSize = 32 * 4096;
 
-    private static final ThreadLocal<MessageDigest> md5Digest = ThreadLocal.withInitial(() -> {
-        try {
-            return MessageDigest.getInstance("MD5");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
-        }
-    });
+    /**
+     * "IBM5", followed by the format version
+     */
+    private static final int MAGIC = 0x49424d35;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 8;
+    private static final int MIN_COMPACTION_RECORDS = 1024;
+
+    /**
+     * record types
+     */
+    private static final byte FILE = 0;
+    private static final byte DIRECTORY = 1;
+
+    /**
+     * size of files cached by former versions
+     */
+    private static final long UNKNOWN_SIZE = -1;
 
     private final ConcurrentHashMap<String, MD5Info> cache = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, DirectorySummary> directories = new ConcurrentHashMap<>();
+    private final File file;
+    private DataOutputStream journal;
+    /**
+     * number of records in the journal file, including superseded ones
+     */
+    private int records;
+    /**
+     * format version of the cache file read
+     */
+    private int version = VERSION;
 
-    String getMD5Sum(File file, String relativePath) {
-        return cache.compute(relativePath, (key, existingInfo) -> {
-            if (existingInfo == null || existingInfo.lastModified != file.lastModified()) {
-                return new MD5Info(md5sumUnchecked(file), file.lastModified());
-            } else {
-                return existingInfo;
-            }
-        }).md5;
+    private final HashEngine hashEngine;
+    private final Metrics metrics;
+
+    private MD5Cache(File file, HashEngine hashEngine, Metrics metrics) {
+        this.file = file;
+        this.hashEngine = hashEngine;
+        this.metrics = metrics;
     }
 
     /**
-     * load cache from JSON file. Return empty cache if file doesn't exist.
+     * Get the md5 sum of a file, computing it unless the cache has it for the
+     * given modification time and size.
+     *
+     * @throws UncheckedIOException if the file can't be read
      */
-    static MD5Cache load(File file) throws IOException {
-        if (!file.exists())
-            return new MD5Cache();
-        try (var reader = new BufferedReader(new FileReader(file, UTF_8))) {
-            var tokenizer = new JSONTokener(reader);
-            var json = new JSONObject(tokenizer);
-            var cache = new MD5Cache();
-            json.keySet().forEach(key -> {
-                var obj = json.getJSONObject(key);
-                cache.cache.put(key, MD5Info.fromJSON(obj));
-            });
-            return cache;
+    Digest getMD5Sum(File file, String relativePath, long lastModified, long size) {
+        var md5 = getCachedMD5Sum(relativePath, lastModified, size);
+        if (md5 == null) {
+            var start = System.nanoTime();
+            md5 = md5sumUnchecked(file);
+            metrics.hashed(size, System.nanoTime() - start);
+            put(relativePath, md5, lastModified, size);
         }
+        return md5;
     }
 
     /**
-     * save cache to a JSON file
+     * Get the md5 sum of a file from the cache, without reading the file.
+     *
+     * @return null unless the cache has it for the given modification time and size
      */
-    void save(File file) throws IOException {
-        try (var fileWriter = new BufferedWriter(new FileWriter(file, UTF_8))) {
-            var jsonWriter = new JSONWriter(fileWriter);
-            jsonWriter.object();
-            cache.forEach((key, value) -> {
-                jsonWriter.key(key);
-                jsonWriter.value(value.toJSON());
-            });
-            jsonWriter.endObject();
+    Digest getCachedMD5Sum(String relativePath, long lastModified, long size) {
+        var info = cache.get(relativePath);
+        if (info == null || info.lastModified != lastModified
+                || (info.size != size && info.size != UNKNOWN_SIZE)) {
+            return null;
+        }
+        metrics.cacheHit();
+        var md5 = new Digest(info.hi, info.lo);
+        if (info.size == UNKNOWN_SIZE) {
+            // cached by a former version
+            put(relativePath, md5, lastModified, size);
+        }
+        return md5;
+    }
+
+    /**
+     * Get a track from the cache, without looking at the file.
+     *
+     * @return track with md5 sum, modification time and size as cached, or
+     * null if the file isn't cached
+     */
+    Track getTrack(File file, String relativePath) {
+        var info = cache.get(relativePath);
+        if (info == null || info.size == UNKNOWN_SIZE) {
+            return null;
+        }
+        var track = new Track(this, file, relativePath, info.size, info.lastModified);
+        track.md5 = new Digest(info.hi, info.lo);
+        return track;
+    }
+
+    /**
+     * Count tracks the scanner took from the cache as cache hits.
+     */
+    void reused(int tracks) {
+        metrics.cacheHit(tracks);
+    }
+
+    /**
+     * Record the md5 sum of a file and append it to the journal.
+     */
+    void put(String relativePath, Digest md5, long lastModified, long size) {
+        var info = new MD5Info(md5.hi, md5.lo, lastModified, size);
+        cache.put(relativePath, info);
+        append(FILE, relativePath, info);
+    }
+
+    /**
+     * @param relativePath relative path of the directory, empty for the top-level directory
+     * @return summary of the directory, or null
+     */
+    DirectorySummary getDirectory(String relativePath) {
+        return directories.get(relativePath);
+    }
+
+    /**
+     * Record the summary of a directory and append it to the journal.
+     */
+    void putDirectory(String relativePath, DirectorySummary summary) {
+        directories.put(relativePath, summary);
+        append(DIRECTORY, relativePath, summary);
+    }
+
+    /**
+     * Open the cache file, creating it if it doesn't exist. A cache in the
+     * former JSON format gets migrated, and deleted unless it is on read-only
+     * media.
+     *
+     * @param file       binary cache file
+     * @param legacyFile JSON cache file of former versions
+     * @param hashEngine computes the md5 sums of changed files
+     * @param metrics    records cache hits and hashing
+     */
+    static MD5Cache open(File file, File legacyFile, HashEngine hashEngine, Metrics metrics)
+            throws IOException {
+        var cache = new MD5Cache(file, hashEngine, metrics);
+        var migrate = false;
+        var upgrade = false;
+        if (file.exists()) {
+            var validLength = cache.read();
+            upgrade = cache.version < VERSION;
+            if (validLength < file.length() && !upgrade) {
+                // drop a record torn by a crash
+                try (var channel = new FileOutputStream(file, true).getChannel()) {
+                    channel.truncate(validLength);
+                }
+            }
+        } else if (legacyFile.exists()) {
+            cache.readJSON(legacyFile);
+            migrate = true;
+        }
+        if (!file.exists() || upgrade || cache.needsCompaction()) {
+            cache.compact();
+        } else {
+            cache.openJournal();
+        }
+        if (migrate) {
+            try {
+                Files.delete(legacyFile.toPath());
+            } catch (IOException e) {
+                // read-only, the migrated cache takes precedence anyway
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * flush the journal and close the cache file
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
         }
     }
 
-    private static String md5sumUnchecked(File file) {
+    private synchronized void append(byte type, String relativePath, Object value) {
         try {
-            return md5sum(file);
+            writeRecord(journal, type, relativePath, value);
+            journal.flush();
+            records++;
+            if (needsCompaction()) {
+                compact();
+            }
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private boolean needsCompaction() {
+        return records >= 2 * (cache.size() + directories.size()) + MIN_COMPACTION_RECORDS;
+    }
+
+    /**
+     * Rewrite the cache file with live records only.
+     */
+    synchronized void compact() throws IOException {
+        close();
+        var tmp = new File(file.getPath() + ".tmp");
+        var count = 0;
+        try (var out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), bufferSize))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (var entry : cache.entrySet()) {
+                writeRecord(out, FILE, entry.getKey(), entry.getValue());
+                count++;
+            }
+            for (var entry : directories.entrySet()) {
+                writeRecord(out, DIRECTORY, entry.getKey(), entry.getValue());
+                count++;
+            }
         }
+        Files.move(tmp.toPath(), file.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+        records = count;
+        openJournal();
+    }
+
+    private void openJournal() throws IOException {
+        journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
     }
 
-    private static String md5sum(File file) throws IOException {
-        var buffer = new byte[bufferSize];
-        var digest = md5Digest.get();
-        try (var dis = new DigestInputStream(new FileInputStream(file), digest)) {
+    /**
+     * read all records of the cache file
+     *
+     * @return length of the valid part of the file
+     */
+    private long read() throws IOException {
+        var counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(file), bufferSize));
+        try (var in = new DataInputStream(counter)) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an md5 cache file: " + file);
+            }
+            version = in.readInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unsupported md5 cache version " + version + ": " + file);
+            }
+            // version 1 has file records without type and size only
+            var type = FILE;
+            long validLength = HEADER_SIZE;
             while (true) {
-                if (dis.read(buffer) == -1) {
-                    break;
+                try {
+                    if (version > 1) {
+                        type = in.readByte();
+                    }
+                    var path = readString(in);
+                    if (type == FILE) {
+                        var hi = in.readLong();
+                        var lo = in.readLong();
+                        var lastModified = in.readLong();
+                        var size = version > 1 ? in.readLong() : UNKNOWN_SIZE;
+                        cache.put(path, new MD5Info(hi, lo, lastModified, size));
+                    } else if (type == DIRECTORY) {
+                        var lastModified = in.readLong();
+                        var aggregate = in.readLong();
+                        var files = readStrings(in);
+                        var subdirectories = readStrings(in);
+                        directories.put(path, new DirectorySummary(lastModified, files, subdirectories, aggregate));
+                    } else {
+                        // garbage, treat like a torn record
+                        return validLength;
+                    }
+                    validLength = counter.count;
+                    records++;
+                } catch (EOFException e) {
+                    return validLength;
                 }
             }
         }
-        return encodeHex(digest.digest());
     }
 
-    private static String encodeHex(byte[] data) {
-        var l = data.length;
-        var out = new char[l << 1];
-        for (int i = 0, j = 0; i < l; i++) {
-            out[j++] = DIGITS[(0xF0 & data[i]) >>> 4];
-            out[j++] = DIGITS[0x0F & data[i]];
+    private static void writeRecord(DataOutputStream out, byte type, String relativePath, Object value)
+            throws IOException {
+        out.writeByte(type);
+        writeString(out, relativePath);
+        if (type == FILE) {
+            var info = (MD5Info) value;
+            out.writeLong(info.hi);
+            out.writeLong(info.lo);
+            out.writeLong(info.lastModified);
+            out.writeLong(info.size);
+        } else {
+            var summary = (DirectorySummary) value;
+            out.writeLong(summary.lastModified);
+            out.writeLong(summary.aggregate);
+            writeStrings(out, summary.files);
+            writeStrings(out, summary.directories);
         }
-        return new String(out);
     }
 
+    private static String readString(DataInputStream in) throws IOException {
+        var bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
 
-    private static class MD5Info {
-        String md5;
-        long lastModified;
+    private static String[] readStrings(DataInputStream in) throws IOException {
+        var strings = new String[in.readInt()];
+        for (var i = 0; i < strings.length; i++) {
+            strings[i] = readString(in);
+        }
+        return strings;
+    }
 
-        MD5Info(String md5, long lastModified) {
-            this.md5 = md5;
-            this.lastModified = lastModified;
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        var bytes = string.getBytes(UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] strings) throws IOException {
+        out.writeInt(strings.length);
+        for (var string : strings) {
+            writeString(out, string);
+        }
+    }
+
+    /**
+     * load cache from the JSON file of former versions
+     */
+    private void readJSON(File legacyFile) throws IOException {
+        try (var reader = new BufferedReader(new FileReader(legacyFile, UTF_8))) {
+            var tokenizer = new JSONTokener(reader);
+            var json = new JSONObject(tokenizer);
+            json.keySet().forEach(key -> {
+                var obj = json.getJSONObject(key);
+                var md5 = Digest.parseHex(obj.getString("md5"));
+                cache.put(key, new MD5Info(md5.hi, md5.lo, obj.getLong("mod"), UNKNOWN_SIZE));
+            });
+        }
+    }
+
+    private Digest md5sumUnchecked(File file) {
+        try {
+            return hashEngine.md5sum(file, bufferSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    /**
+     * counts the bytes read
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            var b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
         }
 
-        JSONObject toJSON() {
-            var json = new JSONObject();
-            json.put("md5", md5);
-            json.put("mod", lastModified);
-            return json;
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            var n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
         }
+    }
 
-        static MD5Info fromJSON(JSONObject json) {
-            return new MD5Info(json.getString("md5"), json.getLong("mod"));
+    private static class MD5Info {
+        final long hi;
+        final long lo;
+        final long lastModified;
+        final long size;
+
+        MD5Info(long hi, long lo, long lastModified, long size) {
+            this.hi = hi;
+            this.lo = lo;
+            this.lastModified = lastModified;
+            this.size = size;
         }
     }
 }
@@ -0,0 +1,214 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Streaming parser for the md5 listing returned by sync.ibroadcast.com.
+ * <p>
+ * The response is a JSON object with an <code>md5</code> array of hex
+ * strings. The array is read token by token straight from the stream, each
+ * digest goes directly into an {@link MD5Set} without creating a String for
+ * it. All other members of the object are skipped, so peak memory is close to
+ * the size of the resulting set.
+ */
+class MD5ListingParser {
+
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private int pos;
+    private int limit;
+
+    private MD5ListingParser(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Parse the md5 listing.
+     *
+     * @param in response body, UTF-8 encoded
+     * @return set of MD5 digests
+     * @throws IOException if the response is malformed or has no md5 array
+     */
+    static MD5Set parse(InputStream in) throws IOException {
+        return new MD5ListingParser(new InputStreamReader(in, UTF_8)).parseObject();
+    }
+
+    private MD5Set parseObject() throws IOException {
+        expect('{', next());
+        MD5Set result = null;
+        var c = next();
+        if (c == '}') {
+            throw new IOException("No md5 listing in response");
+        }
+        while (true) {
+            expect('"', c);
+            var key = readString();
+            expect(':', next());
+            if (key.equals("md5")) {
+                result = parseArray();
+            } else {
+                skipValue(next());
+            }
+            c = next();
+            if (c == '}') {
+                break;
+            }
+            expect(',', c);
+            c = next();
+        }
+        if (result == null) {
+            throw new IOException("No md5 listing in response");
+        }
+        return result;
+    }
+
+    private MD5Set parseArray() throws IOException {
+        var result = new MD5Set();
+        var c = next();
+        if (c == 'n') {
+            skipValue(c);
+            return result;
+        }
+        expect('[', c);
+        c = next();
+        if (c == ']') {
+            return result;
+        }
+        while (true) {
+            if (c == '"') {
+                parseDigest(result);
+            } else {
+                // null or something we don't understand
+                skipValue(c);
+            }
+            c = next();
+            if (c == ']') {
+                return result;
+            }
+            expect(',', c);
+            c = next();
+        }
+    }
+
+    /**
+     * Parse a string of 32 hex digits into a digest. Anything else is skipped.
+     */
+    private void parseDigest(MD5Set result) throws IOException {
+        long hi = 0, lo = 0;
+        var digits = 0;
+        var valid = true;
+        while (true) {
+            var c = read();
+            if (c == '"') {
+                break;
+            } else if (c == '\\') {
+                read();
+                valid = false;
+            } else if (c < 0) {
+                throw new IOException("Unexpected end of md5 listing");
+            } else {
+                var digit = Character.digit(c, 16);
+                if (digit < 0 || digits >= 32) {
+                    valid = false;
+                } else if (digits++ < 16) {
+                    hi = hi << 4 | digit;
+                } else {
+                    lo = lo << 4 | digit;
+                }
+            }
+        }
+        if (valid && digits == 32) {
+            result.add(hi, lo);
+        }
+    }
+
+    private String readString() throws IOException {
+        var sb = new StringBuilder();
+        while (true) {
+            var c = read();
+            if (c == '"') {
+                return sb.toString();
+            } else if (c == '\\') {
+                sb.append((char) read());
+            } else if (c < 0) {
+                throw new IOException("Unexpected end of md5 listing");
+            } else {
+                sb.append((char) c);
+            }
+        }
+    }
+
+    private void skipValue(int c) throws IOException {
+        if (c == '"') {
+            skipString();
+        } else if (c == '{' || c == '[') {
+            var depth = 1;
+            while (depth > 0) {
+                c = read();
+                if (c == '"') {
+                    skipString();
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                } else if (c < 0) {
+                    throw new IOException("Unexpected end of md5 listing");
+                }
+            }
+        } else {
+            // number, true, false or null
+            while (c >= 0 && c != ',' && c != '}' && c != ']' && !Character.isWhitespace(c)) {
+                c = read();
+            }
+            if (c >= 0) {
+                pos--;
+            }
+        }
+    }
+
+    private void skipString() throws IOException {
+        while (true) {
+            var c = read();
+            if (c == '"') {
+                return;
+            } else if (c == '\\') {
+                read();
+            } else if (c < 0) {
+                throw new IOException("Unexpected end of md5 listing");
+            }
+        }
+    }
+
+    private static void expect(char expected, int c) throws IOException {
+        if (c != expected) {
+            throw new IOException("Malformed md5 listing: expected '" + expected + "' but got "
+                    + (c < 0 ? "end of stream" : "'" + (char) c + "'"));
+        }
+    }
+
+    /**
+     * @return next non-whitespace character or -1
+     */
+    private int next() throws IOException {
+        var c = read();
+        while (c >= 0 && Character.isWhitespace(c)) {
+            c = read();
+        }
+        return c;
+    }
+
+    private int read() throws IOException {
+        if (pos == limit) {
+            limit = in.read(buffer);
+            pos = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[pos++];
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Set of md5 digests.
+ * <p>
+ * The digests are stored as pairs of longs in a single open addressing table
+ * with linear probing, which takes about 21 to 43 bytes per entry, depending
+ * on how full the table is, instead of the ~120 bytes of a
+ * <code>HashSet</code> of hex strings. The all-zero
+ * digest marks empty slots and is tracked separately.
+ * <p>
+ * All methods are synchronized.
+ */
+class MD5Set {
+
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * hi and lo of slot i are stored at 2i and 2i+1
+     */
+    private long[] table;
+    private int mask;
+    private int size;
+    private boolean containsZero;
+
+    MD5Set() {
+        this(0);
+    }
+
+    /**
+     * @param expectedSize number of digests to hold without resizing
+     */
+    MD5Set(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    synchronized boolean add(long hi, long lo) {
+        if (hi == 0 && lo == 0) {
+            var added = !containsZero;
+            containsZero = true;
+            if (added) {
+                size++;
+            }
+            return added;
+        }
+        var i = slot(hi, lo);
+        while (true) {
+            var h = table[2 * i];
+            var l = table[2 * i + 1];
+            if (h == 0 && l == 0) {
+                break;
+            }
+            if (h == hi && l == lo) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        table[2 * i] = hi;
+        table[2 * i + 1] = lo;
+        size++;
+        if (size > (mask + 1) * 3L / 4) {
+            rehash();
+        }
+        return true;
+    }
+
+    synchronized boolean contains(long hi, long lo) {
+        if (hi == 0 && lo == 0) {
+            return containsZero;
+        }
+        var i = slot(hi, lo);
+        while (true) {
+            var h = table[2 * i];
+            var l = table[2 * i + 1];
+            if (h == hi && l == lo) {
+                return true;
+            }
+            if (h == 0 && l == 0) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Add all digests of another set.
+     */
+    void addAll(MD5Set other) {
+        long[] entries;
+        boolean zero;
+        synchronized (other) {
+            entries = other.table.clone();
+            zero = other.containsZero;
+        }
+        for (var i = 0; i < entries.length; i += 2) {
+            if (entries[i] != 0 || entries[i + 1] != 0) {
+                add(entries[i], entries[i + 1]);
+            }
+        }
+        if (zero) {
+            add(0, 0);
+        }
+    }
+
+    boolean add(Digest digest) {
+        return add(digest.hi, digest.lo);
+    }
+
+    boolean contains(Digest digest) {
+        return contains(digest.hi, digest.lo);
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    private int slot(long hi, long lo) {
+        // md5 bits are uniformly distributed already, just fold them
+        var h = hi ^ lo;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void rehash() {
+        var old = table;
+        allocate((mask + 1) * 2);
+        for (var i = 0; i < old.length; i += 2) {
+            var hi = old[i];
+            var lo = old[i + 1];
+            if (hi != 0 || lo != 0) {
+                var j = slot(hi, lo);
+                while (table[2 * j] != 0 || table[2 * j + 1] != 0) {
+                    j = (j + 1) & mask;
+                }
+                table[2 * j] = hi;
+                table[2 * j + 1] = lo;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        table = new long[2 * capacity];
+        mask = capacity - 1;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        var capacity = MIN_CAPACITY;
+        while (capacity * 3L / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
@@ -0,0 +1,309 @@
+import org.json.JSONObject;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters, phase timings and latency histograms of a run.
+ * <p>
+ * All recording methods are thread-safe and cheap enough to be called for
+ * every file. At the end of a run the metrics are printed as a summary and
+ * optionally written as a JSON report; during a run they can be exposed in
+ * the Prometheus text format.
+ */
+class Metrics {
+
+    private static final double MB = 1024 * 1024;
+
+    private final Instant started = Instant.now();
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+
+    final AtomicLong filesScanned = new AtomicLong();
+    final AtomicLong bytesScanned = new AtomicLong();
+    final AtomicLong filesProcessed = new AtomicLong();
+    final AtomicLong bytesProcessed = new AtomicLong();
+    final AtomicLong cacheHits = new AtomicLong();
+    final AtomicLong filesHashed = new AtomicLong();
+    final AtomicLong bytesHashed = new AtomicLong();
+    final AtomicLong filesSkipped = new AtomicLong();
+    final AtomicLong filesDuplicate = new AtomicLong();
+    final AtomicLong bytesDeduplicated = new AtomicLong();
+    final AtomicLong filesUploaded = new AtomicLong();
+    final AtomicLong bytesUploaded = new AtomicLong();
+    final AtomicLong uploadsFailed = new AtomicLong();
+    final AtomicLong retries = new AtomicLong();
+
+    final LatencyHistogram hashLatency = new LatencyHistogram();
+    final LatencyHistogram uploadLatency = new LatencyHistogram();
+
+    private volatile boolean scanFinished;
+    // scanner threads blocked on the full hash queue, guarded by this
+    private int blockedScanners;
+    private long blockedSince;
+    private long scanWaitNanos;
+    /**
+     * current limit of uploads in flight, 0 before the upload starts
+     */
+    private volatile int uploadLimit;
+
+    /**
+     * Add to the wall time of a phase.
+     *
+     * @param startNanos {@link System#nanoTime()} at the start of the phase
+     */
+    synchronized void phase(String name, long startNanos) {
+        phases.merge(name, System.nanoTime() - startNanos, Long::sum);
+    }
+
+    void scanned(Track track) {
+        filesScanned.incrementAndGet();
+        bytesScanned.addAndGet(track.size);
+    }
+
+    void scanFinished() {
+        scanFinished = true;
+    }
+
+    /**
+     * A scanner thread blocks because the hash queue is full. The wall time
+     * during which any scanner thread is blocked is recorded as phase
+     * "scan wait".
+     */
+    synchronized void scanBlocked() {
+        if (blockedScanners++ == 0) {
+            blockedSince = System.nanoTime();
+        }
+    }
+
+    synchronized void scanUnblocked() {
+        if (--blockedScanners == 0) {
+            var nanos = System.nanoTime() - blockedSince;
+            scanWaitNanos += nanos;
+            phases.merge("scan wait", nanos, Long::sum);
+        }
+    }
+
+    /**
+     * @return total wall time scanner threads were blocked so far
+     */
+    synchronized long scanWaitNanos() {
+        return scanWaitNanos;
+    }
+
+    void processed(Track track) {
+        filesProcessed.incrementAndGet();
+        bytesProcessed.addAndGet(track.size);
+    }
+
+    void cacheHit() {
+        cacheHits.incrementAndGet();
+    }
+
+    void cacheHit(int count) {
+        cacheHits.addAndGet(count);
+    }
+
+    void hashed(long bytes, long nanos) {
+        filesHashed.incrementAndGet();
+        bytesHashed.addAndGet(bytes);
+        hashLatency.record(nanos);
+    }
+
+    void skipped() {
+        filesSkipped.incrementAndGet();
+    }
+
+    /**
+     * A track with the same content as one uploaded in this run.
+     */
+    void duplicate(long bytes) {
+        filesDuplicate.incrementAndGet();
+        bytesDeduplicated.addAndGet(bytes);
+    }
+
+    void uploaded(long bytes, long nanos) {
+        filesUploaded.incrementAndGet();
+        bytesUploaded.addAndGet(bytes);
+        uploadLatency.record(nanos);
+    }
+
+    void failed() {
+        uploadsFailed.incrementAndGet();
+    }
+
+    void retried() {
+        retries.incrementAndGet();
+    }
+
+    void uploadLimit(int limit) {
+        uploadLimit = limit;
+    }
+
+    /**
+     * @return one line of progress, with an ETA once the scan is complete
+     */
+    String progress() {
+        var seconds = elapsedSeconds();
+        var processed = bytesProcessed.get();
+        var line = new StringBuilder(String.format(Locale.ROOT,
+                "Progress: %d/%d%s files, %.1f MB uploaded, %.1f MB/s",
+                filesProcessed.get(), filesScanned.get(), scanFinished ? "" : "+",
+                bytesUploaded.get() / MB, bytesUploaded.get() / MB / seconds));
+        if (uploadLimit > 0) {
+            line.append(", ").append(uploadLimit).append(" uploads in flight max");
+        }
+        if (scanFinished && processed > 0) {
+            var remaining = (bytesScanned.get() - processed) * seconds / processed;
+            var eta = Duration.ofSeconds((long) remaining);
+            line.append(String.format(Locale.ROOT, ", ETA %d:%02d:%02d",
+                    eta.toHours(), eta.toMinutesPart(), eta.toSecondsPart()));
+        }
+        return line.append('\n').toString();
+    }
+
+    /**
+     * @return human readable summary of the run
+     */
+    String summary() {
+        var seconds = elapsedSeconds();
+        var sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "Summary: %d files in %.1f s, %.1f files/s%n",
+                filesProcessed.get(), seconds, filesProcessed.get() / seconds));
+        sb.append(String.format(Locale.ROOT, "  uploaded %d files, %.1f MB, %.1f MB/s; skipped %d; failed %d; retries %d%n",
+                filesUploaded.get(), bytesUploaded.get() / MB, bytesUploaded.get() / MB / seconds,
+                filesSkipped.get(), uploadsFailed.get(), retries.get()));
+        if (filesDuplicate.get() > 0) {
+            sb.append(String.format(Locale.ROOT, "  duplicates %d files, %.1f MB not uploaded again%n",
+                    filesDuplicate.get(), bytesDeduplicated.get() / MB));
+        }
+        sb.append(String.format(Locale.ROOT, "  hashed %d files, %.1f MB; cache hit rate %.1f%%%n",
+                filesHashed.get(), bytesHashed.get() / MB, 100 * cacheHitRate()));
+        sb.append("  phases:");
+        synchronized (this) {
+            phases.forEach((name, nanos) -> sb.append(String.format(Locale.ROOT, " %s %.2f s", name, nanos / 1e9)));
+        }
+        sb.append('\n');
+        sb.append(latencySummary("hash", hashLatency));
+        sb.append(latencySummary("upload", uploadLatency));
+        return sb.toString();
+    }
+
+    /**
+     * @return machine readable report of the run
+     */
+    JSONObject toJSON() {
+        var seconds = elapsedSeconds();
+        var json = new JSONObject();
+        json.put("started", started.toString());
+        json.put("durationSeconds", seconds);
+
+        var phaseSeconds = new JSONObject();
+        synchronized (this) {
+            phases.forEach((name, nanos) -> phaseSeconds.put(name, nanos / 1e9));
+        }
+        json.put("phases", phaseSeconds);
+
+        var files = new JSONObject();
+        files.put("scanned", filesScanned.get());
+        files.put("processed", filesProcessed.get());
+        files.put("cacheHits", cacheHits.get());
+        files.put("hashed", filesHashed.get());
+        files.put("skipped", filesSkipped.get());
+        files.put("duplicates", filesDuplicate.get());
+        files.put("uploaded", filesUploaded.get());
+        files.put("failed", uploadsFailed.get());
+        files.put("retries", retries.get());
+        json.put("files", files);
+
+        var bytes = new JSONObject();
+        bytes.put("scanned", bytesScanned.get());
+        bytes.put("hashed", bytesHashed.get());
+        bytes.put("uploaded", bytesUploaded.get());
+        bytes.put("deduplicated", bytesDeduplicated.get());
+        json.put("bytes", bytes);
+
+        var rates = new JSONObject();
+        rates.put("filesPerSecond", filesProcessed.get() / seconds);
+        rates.put("uploadMBPerSecond", bytesUploaded.get() / MB / seconds);
+        rates.put("hashMBPerSecond", bytesHashed.get() / MB / seconds);
+        json.put("rates", rates);
+        json.put("cacheHitRate", cacheHitRate());
+        json.put("uploadLimit", uploadLimit);
+
+        var latency = new JSONObject();
+        latency.put("hash", toJSON(hashLatency));
+        latency.put("upload", toJSON(uploadLatency));
+        json.put("latencyMillis", latency);
+        return json;
+    }
+
+    /**
+     * @return metrics in the Prometheus text exposition format
+     */
+    String toPrometheus() {
+        var sb = new StringBuilder();
+        sb.append("# TYPE ibroadcast_files_total counter\n");
+        counter(sb, "ibroadcast_files_total", "state", "scanned", filesScanned);
+        counter(sb, "ibroadcast_files_total", "state", "processed", filesProcessed);
+        counter(sb, "ibroadcast_files_total", "state", "cache_hit", cacheHits);
+        counter(sb, "ibroadcast_files_total", "state", "hashed", filesHashed);
+        counter(sb, "ibroadcast_files_total", "state", "skipped", filesSkipped);
+        counter(sb, "ibroadcast_files_total", "state", "duplicate", filesDuplicate);
+        counter(sb, "ibroadcast_files_total", "state", "uploaded", filesUploaded);
+        counter(sb, "ibroadcast_files_total", "state", "failed", uploadsFailed);
+        sb.append("# TYPE ibroadcast_retries_total counter\n");
+        sb.append("ibroadcast_retries_total ").append(retries.get()).append('\n');
+        sb.append("# TYPE ibroadcast_bytes_total counter\n");
+        counter(sb, "ibroadcast_bytes_total", "kind", "scanned", bytesScanned);
+        counter(sb, "ibroadcast_bytes_total", "kind", "hashed", bytesHashed);
+        counter(sb, "ibroadcast_bytes_total", "kind", "uploaded", bytesUploaded);
+        counter(sb, "ibroadcast_bytes_total", "kind", "deduplicated", bytesDeduplicated);
+        sb.append("# TYPE ibroadcast_upload_limit gauge\n");
+        sb.append("ibroadcast_upload_limit ").append(uploadLimit).append('\n');
+        summary(sb, "ibroadcast_hash_seconds", hashLatency);
+        summary(sb, "ibroadcast_upload_seconds", uploadLatency);
+        return sb.toString();
+    }
+
+    private double elapsedSeconds() {
+        return Math.max(System.nanoTime() - startNanos, 1) / 1e9;
+    }
+
+    private double cacheHitRate() {
+        var lookups = cacheHits.get() + filesHashed.get();
+        return lookups == 0 ? 0 : (double) cacheHits.get() / lookups;
+    }
+
+    private static String latencySummary(String name, LatencyHistogram histogram) {
+        return String.format(Locale.ROOT, "  %s latency: p50 %.1f ms, p99 %.1f ms, max %.1f ms%n", name,
+                histogram.percentile(0.5) / 1e6, histogram.percentile(0.99) / 1e6, histogram.max() / 1e6);
+    }
+
+    private static JSONObject toJSON(LatencyHistogram histogram) {
+        var json = new JSONObject();
+        json.put("count", histogram.count());
+        json.put("p50", histogram.percentile(0.5) / 1e6);
+        json.put("p99", histogram.percentile(0.99) / 1e6);
+        json.put("max", histogram.max() / 1e6);
+        return json;
+    }
+
+    private static void counter(StringBuilder sb, String name, String label, String value, AtomicLong counter) {
+        sb.append(name).append('{').append(label).append("=\"").append(value).append("\"} ")
+                .append(counter.get()).append('\n');
+    }
+
+    private static void summary(StringBuilder sb, String name, LatencyHistogram histogram) {
+        sb.append("# TYPE ").append(name).append(" summary\n");
+        sb.append(name).append("{quantile=\"0.5\"} ").append(histogram.percentile(0.5) / 1e9).append('\n');
+        sb.append(name).append("{quantile=\"0.99\"} ").append(histogram.percentile(0.99) / 1e9).append('\n');
+        sb.append(name).append("{quantile=\"1\"} ").append(histogram.max() / 1e9).append('\n');
+        sb.append(name).append("_sum ").append(histogram.sum() / 1e9).append('\n');
+        sb.append(name).append("_count ").append(histogram.count()).append('\n');
+    }
+}
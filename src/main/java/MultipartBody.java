@@ -0,0 +1,127 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.net.http.HttpRequest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A multipart/form-data request body which streams its files straight from
+ * disk.
+ * <p>
+ * The exact length of the body is known up front, so the request is sent
+ * with a Content-Length header instead of being buffered on the heap or sent
+ * chunked. Memory use per request is bounded by the http client's buffer
+ * size and does not depend on the size of the files.
+ */
+class MultipartBody {
+
+    private static final String CR_LF = "\r\n";
+
+    private final String boundary;
+    /**
+     * parts of the body, either byte[] or File
+     */
+    private final List<Object> parts = new ArrayList<>();
+    private final ByteArrayOutputStream text = new ByteArrayOutputStream();
+    private long length;
+
+    MultipartBody(String boundary) {
+        this.boundary = boundary;
+    }
+
+    String contentType() {
+        return "multipart/form-data; boundary=" + boundary;
+    }
+
+    /**
+     * Adds a upload file section
+     */
+    MultipartBody addFilePart(String name, File file, String contentType) {
+        append("--" + boundary + CR_LF
+                + "Content-Disposition: form-data; name=\"" + name + "\"; filename=\""
+                + file.getName() + "\"" + CR_LF
+                + "Content-Type: " + contentType + CR_LF
+                + CR_LF);
+        flushText();
+        parts.add(file);
+        length += file.length();
+        append(CR_LF);
+        return this;
+    }
+
+    /**
+     * Adds a parameter
+     */
+    MultipartBody addParameter(String name, String value) {
+        append("--" + boundary + CR_LF
+                + "Content-Disposition: form-data; name=\"" + name + "\"" + CR_LF
+                + CR_LF + value + CR_LF);
+        return this;
+    }
+
+    /**
+     * Terminates the body and returns a publisher with a fixed content length.
+     *
+     * @param limiter limits the rate the body is read at
+     */
+    HttpRequest.BodyPublisher publisher(BandwidthLimiter limiter) {
+        append("--" + boundary + "--" + CR_LF);
+        flushText();
+        var streams = HttpRequest.BodyPublishers.ofInputStream(() -> limiter.throttle(open()));
+        return HttpRequest.BodyPublishers.fromPublisher(streams, length);
+    }
+
+    /**
+     * @return length of the body in bytes, complete once {@link #publisher} was called
+     */
+    long length() {
+        return length;
+    }
+
+    private void append(String s) {
+        var bytes = s.getBytes(UTF_8);
+        text.write(bytes, 0, bytes.length);
+        length += bytes.length;
+    }
+
+    private void flushText() {
+        if (text.size() > 0) {
+            parts.add(text.toByteArray());
+            text.reset();
+        }
+    }
+
+    private InputStream open() {
+        var streams = new ArrayList<InputStream>(parts.size());
+        try {
+            for (var part : parts) {
+                if (part instanceof File) {
+                    streams.add(new FileInputStream((File) part));
+                } else {
+                    streams.add(new ByteArrayInputStream((byte[]) part));
+                }
+            }
+        } catch (IOException e) {
+            streams.forEach(MultipartBody::closeQuietly);
+            throw new UncheckedIOException(e);
+        }
+        return new SequenceInputStream(Collections.enumeration(streams));
+    }
+
+    private static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
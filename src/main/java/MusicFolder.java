@@ -0,0 +1,84 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A music folder to upload, with its md5 cache and scanner.
+ * <p>
+ * The md5 caches of all music folders live in a central cache directory, so
+ * music folders on read-only media can be uploaded too. Every music folder
+ * has a cache file of its own, named after the folder and keyed by a hash
+ * of its canonical path.
+ */
+class MusicFolder implements Closeable {
+
+    /**
+     * cache file name of former versions, inside the music folder
+     */
+    private static final String LOCAL_CACHE = "ib-md5-cache.bin";
+    private static final String LEGACY_CACHE = "ib-md5-cache.json";
+
+    final File dir;
+    final MD5Cache cache;
+    final DirectoryScanner scanner;
+
+    private MusicFolder(File dir, MD5Cache cache, DirectoryScanner scanner) {
+        this.dir = dir;
+        this.cache = cache;
+        this.scanner = scanner;
+    }
+
+    /**
+     * Open the md5 cache of a music folder. A cache kept inside the music
+     * folder by former versions is copied into the cache directory.
+     *
+     * @param dir        top-level directory containing media files
+     * @param cacheDir   central cache directory
+     * @param extensions supported media file extensions, including the dot
+     */
+    static MusicFolder open(File dir, File cacheDir, Set<String> extensions, Options options, Metrics metrics)
+            throws IOException {
+        var file = new File(cacheDir, cacheName(dir));
+        var localFile = new File(dir, LOCAL_CACHE);
+        if (!file.exists() && localFile.isFile()) {
+            Files.copy(localFile.toPath(), file.toPath());
+        }
+        var cache = MD5Cache.open(file, new File(dir, LEGACY_CACHE), options.hashEngine, metrics);
+        var scanner = new DirectoryScanner(extensions, options.scanThreads, cache, options.fullScan);
+        return new MusicFolder(dir, cache, scanner);
+    }
+
+    /**
+     * @return whether the path is inside this music folder
+     */
+    boolean contains(File file) {
+        return file.toPath().startsWith(dir.toPath());
+    }
+
+    @Override
+    public void close() throws IOException {
+        cache.close();
+    }
+
+    /**
+     * @return cache file name, e.g. <code>md5-Music-0123456789abcdef.bin</code>
+     */
+    static String cacheName(File dir) throws IOException {
+        var path = dir.getCanonicalPath();
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        var key = Digest.of(md5.digest(path.getBytes(UTF_8))).toHex().substring(0, 16);
+        var name = new File(path).getName().replaceAll("[^\\w.-]", "_");
+        return "md5-" + (name.isEmpty() ? "root" : name) + "-" + key + ".bin";
+    }
+}
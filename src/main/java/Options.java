@@ -0,0 +1,318 @@
+import java.io.File;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Command line options of the uploader.
+ * <p>
+ * Positional arguments are the email address, the password and the optional
+ * music folders. Tuning options have the form <code>--name=value</code> and may
+ * appear anywhere on the command line.
+ */
+class Options {
+
+    static final String DEFAULT_LOGIN_URL = "https://json.ibroadcast.com/s/JSON/status";
+    static final String DEFAULT_SYNC_URL = "https://sync.ibroadcast.com";
+
+    static final String USAGE = "Run this script in the parent directory of your music files\n"
+            + "or give one or more music directories after the password.\n"
+            + "\n"
+            + "Usage: java -jar ibroadcast-uploader.jar [options]"
+            + " <email-address> <password> [<dir>...]\n"
+            + "\n"
+            + "Options:\n"
+            + "  --scan-threads=N    number of threads scanning the music folder (default: number of cores,\n"
+            + "                      at least 8)\n"
+            + "  --full-scan         list every directory and compare every file with the md5 cache, to\n"
+            + "                      find files modified in place\n"
+            + "  --hash-threads=N    number of threads computing md5 sums (default: number of cores)\n"
+            + "  --upload-threads=N  number of parallel uploads (default: number of cores, at least 4)\n"
+            + "  --connections=N     maximum number of pooled http connections (default: upload threads)\n"
+            + "  --hash-engine=E     how to read files for hashing: stream, channel or mmap (default: stream)\n"
+            + "  --cache-dir=DIR     directory of the md5 caches and the upload journal\n"
+            + "                      (default: " + defaultCacheDir() + ")\n"
+            + "  --order=O           order of uploads: scan (as found, starts while scanning), path,\n"
+            + "                      largest (shortest total time) or smallest first (default: scan)\n"
+            + "  --retries=N         retries of failed uploads, with exponential backoff (default: 5)\n"
+            + "  --bandwidth=RATE    maximum upload bandwidth in bytes/s, with optional K or M suffix\n"
+            + "                      (default: 0, unlimited)\n"
+            + "  --bandwidth-schedule=HH:MM-HH:MM=RATE,...\n"
+            + "                      upload bandwidth for times of the day, --bandwidth applies outside\n"
+            + "  --adaptive          adapt the number of parallel uploads to the observed throughput,\n"
+            + "                      up to --upload-threads\n"
+            + "  --progress=SECONDS  interval of progress reports, 0 to turn them off (default: 10)\n"
+            + "  --output=O          console output: log (a line per file), tty (progress updated in place)\n"
+            + "                      or quiet (only the upload prompt, failures and the summary);\n"
+            + "                      default: tty on a terminal, log otherwise\n"
+            + "  --report=FILE       write a JSON report of the run to FILE\n"
+            + "  --metrics-port=N    serve metrics in Prometheus format at http://localhost:N/metrics\n"
+            + "  --watch             after uploading, keep watching the music folder and upload new\n"
+            + "                      and modified files\n"
+            + "  --watch-delay=SECONDS\n"
+            + "                      time a changed file must stay unchanged before it is uploaded\n"
+            + "                      (default: 5)\n"
+            + "  --yes               don't ask for confirmation, start uploading while scanning\n"
+            + "  --login-url=URL     login endpoint (default: " + DEFAULT_LOGIN_URL + ")\n"
+            + "  --sync-url=URL      md5 listing and upload endpoint (default: " + DEFAULT_SYNC_URL + ")\n";
+
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+    String email;
+    String password;
+    List<File> dirs = new ArrayList<>();
+    File cacheDir = defaultCacheDir();
+    int scanThreads = Math.max(8, CORES);
+    boolean fullScan;
+    int hashThreads = CORES;
+    int uploadThreads = Math.max(4, CORES);
+    int connections;
+    HashEngine hashEngine = HashEngine.STREAM;
+    UploadOrder order = UploadOrder.SCAN;
+    int retries = 5;
+    long bandwidth;
+    boolean adaptive;
+    List<BandwidthLimiter.Window> bandwidthSchedule = new ArrayList<>();
+    int progress = 10;
+    Console.Mode output = Console.Mode.AUTO;
+    File report;
+    int metricsPort;
+    boolean watch;
+    int watchDelay = 5;
+    boolean yes;
+    String loginUrl = DEFAULT_LOGIN_URL;
+    String syncUrl = DEFAULT_SYNC_URL;
+
+    /**
+     * Parse command line arguments.
+     *
+     * @param args command line arguments
+     * @return parsed options
+     * @throws IllegalArgumentException if the arguments are invalid or help was requested
+     */
+    static Options parse(String[] args) {
+        var options = new Options();
+        var positional = 0;
+        for (var arg : args) {
+            if (arg.equals("-h") || arg.equals("--help") || arg.equals("/?")) {
+                throw new IllegalArgumentException("");
+            } else if (arg.startsWith("--")) {
+                options.parseOption(arg);
+            } else {
+                switch (positional++) {
+                    case 0:
+                        options.email = arg;
+                        break;
+                    case 1:
+                        options.password = arg;
+                        break;
+                    default:
+                        options.dirs.add(new File(arg));
+                }
+            }
+        }
+        if (options.email == null || options.email.isEmpty()
+                || options.password == null || options.password.isEmpty()) {
+            throw new IllegalArgumentException("");
+        }
+        if (options.dirs.isEmpty()) {
+            options.dirs.add(new File(System.getProperty("user.dir")));
+        }
+        if (options.connections == 0) {
+            options.connections = options.uploadThreads;
+        }
+        return options;
+    }
+
+    private void parseOption(String arg) {
+        var eq = arg.indexOf('=');
+        var name = eq < 0 ? arg.substring(2) : arg.substring(2, eq);
+        var value = eq < 0 ? null : arg.substring(eq + 1);
+        switch (name) {
+            case "scan-threads":
+                scanThreads = positiveInt(name, value);
+                break;
+            case "full-scan":
+                fullScan = true;
+                break;
+            case "hash-threads":
+                hashThreads = positiveInt(name, value);
+                break;
+            case "upload-threads":
+                uploadThreads = positiveInt(name, value);
+                break;
+            case "connections":
+                connections = positiveInt(name, value);
+                break;
+            case "hash-engine":
+                hashEngine = hashEngine(required(name, value));
+                break;
+            case "cache-dir":
+                cacheDir = new File(required(name, value));
+                break;
+            case "order":
+                order = uploadOrder(required(name, value));
+                break;
+            case "retries":
+                retries = nonNegativeInt(name, value);
+                break;
+            case "bandwidth":
+                bandwidth = rate(name, value);
+                break;
+            case "bandwidth-schedule":
+                bandwidthSchedule = schedule(name, value);
+                break;
+            case "adaptive":
+                adaptive = true;
+                break;
+            case "progress":
+                progress = nonNegativeInt(name, value);
+                break;
+            case "output":
+                output = outputMode(required(name, value));
+                break;
+            case "report":
+                report = new File(required(name, value));
+                break;
+            case "metrics-port":
+                metricsPort = positiveInt(name, value);
+                break;
+            case "watch":
+                watch = true;
+                break;
+            case "watch-delay":
+                watchDelay = nonNegativeInt(name, value);
+                break;
+            case "yes":
+                yes = true;
+                break;
+            case "login-url":
+                loginUrl = required(name, value);
+                break;
+            case "sync-url":
+                syncUrl = required(name, value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option: " + arg);
+        }
+    }
+
+    private static String required(String name, String value) {
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Missing value for option --" + name);
+        }
+        return value;
+    }
+
+    private static HashEngine hashEngine(String value) {
+        try {
+            return HashEngine.valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown hash engine: " + value);
+        }
+    }
+
+    /**
+     * @return per-user cache directory of the platform
+     */
+    private static File defaultCacheDir() {
+        var base = System.getenv("LOCALAPPDATA");
+        if (base == null) {
+            base = System.getenv("XDG_CACHE_HOME");
+        }
+        if (base == null) {
+            base = System.getProperty("user.home") + File.separator + ".cache";
+        }
+        return new File(base, "ibroadcast-uploader");
+    }
+
+    private static Console.Mode outputMode(String value) {
+        try {
+            return Console.Mode.valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown output mode: " + value);
+        }
+    }
+
+    private static UploadOrder uploadOrder(String value) {
+        try {
+            return UploadOrder.valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown upload order: " + value);
+        }
+    }
+
+    /**
+     * parse a comma separated list of HH:MM-HH:MM=RATE windows
+     */
+    private static List<BandwidthLimiter.Window> schedule(String name, String value) {
+        var windows = new ArrayList<BandwidthLimiter.Window>();
+        for (var window : required(name, value).split(",")) {
+            var eq = window.indexOf('=');
+            var dash = window.indexOf('-');
+            if (eq < 0 || dash < 0 || dash > eq) {
+                throw new IllegalArgumentException("Option --" + name + " needs HH:MM-HH:MM=RATE: " + window);
+            }
+            try {
+                windows.add(new BandwidthLimiter.Window(
+                        LocalTime.parse(window.substring(0, dash).trim()),
+                        LocalTime.parse(window.substring(dash + 1, eq).trim()),
+                        rate(name, window.substring(eq + 1).trim())));
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Option --" + name + " needs HH:MM-HH:MM=RATE: " + window);
+            }
+        }
+        return windows;
+    }
+
+    /**
+     * parse bytes/s with optional K or M suffix
+     */
+    private static long rate(String name, String value) {
+        var rate = required(name, value).toUpperCase(Locale.ROOT);
+        var factor = 1L;
+        if (rate.endsWith("K")) {
+            factor = 1024;
+        } else if (rate.endsWith("M")) {
+            factor = 1024 * 1024;
+        }
+        if (factor > 1) {
+            rate = rate.substring(0, rate.length() - 1);
+        }
+        try {
+            var result = Long.parseLong(rate);
+            if (result >= 0) {
+                return result * factor;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        throw new IllegalArgumentException("Option --" + name + " needs a rate like 500K or 2M: " + value);
+    }
+
+    private static int nonNegativeInt(String name, String value) {
+        try {
+            var result = Integer.parseInt(required(name, value));
+            if (result >= 0) {
+                return result;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        throw new IllegalArgumentException("Option --" + name + " needs a number: " + value);
+    }
+
+    private static int positiveInt(String name, String value) {
+        try {
+            var result = Integer.parseInt(required(name, value));
+            if (result > 0) {
+                return result;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        throw new IllegalArgumentException("Option --" + name + " needs a positive number: " + value);
+    }
+}
@@ -0,0 +1,31 @@
+import java.io.File;
+
+/**
+ * A local music file on its way through the upload pipeline.
+ */
+class Track {
+
+    /**
+     * md5 cache of the music folder the track is in, null if not cached
+     */
+    final MD5Cache cache;
+    final File file;
+    final String relativePath;
+    /**
+     * file size in bytes, as seen by the scanner
+     */
+    final long size;
+    /**
+     * modification time in millis, as seen by the scanner
+     */
+    final long lastModified;
+    Digest md5;
+
+    Track(MD5Cache cache, File file, String relativePath, long size, long lastModified) {
+        this.cache = cache;
+        this.file = file;
+        this.relativePath = relativePath;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+}
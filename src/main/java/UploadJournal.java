@@ -0,0 +1,254 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Journal of the uploads of an unfinished run.
+ * <p>
+ * Every confirmed and every failed upload is appended to the journal file as
+ * it happens: a status byte followed by the 16 byte digest. When a run gets
+ * interrupted, the next run skips the uploads confirmed in the journal right
+ * away and only tries the rest, including the failures, again. The header
+ * names the account and endpoint the uploads went to; a journal of another
+ * account or endpoint is discarded.
+ * <p>
+ * The journal is only a hint, the md5 listing of the server is what counts. A
+ * corrupt journal is discarded too, and the run starts a fresh one.
+ * <p>
+ * When a run finishes, the md5 listing of the next run has its uploads, so
+ * the journal is deleted, or rewritten with the failures of the run only.
+ */
+class UploadJournal implements Closeable {
+
+    /**
+     * "IBUJ", followed by the format version and the account
+     */
+    private static final int MAGIC = 0x4942554a;
+    private static final int VERSION = 2;
+    private static final int RECORD_SIZE = 17;
+    private static final byte UPLOADED = 1;
+    private static final byte FAILED = 2;
+
+    private final File file;
+    private final String account;
+    private final MD5Set uploaded = new MD5Set();
+    /**
+     * failures of an interrupted run which weren't uploaded later on; there are few
+     */
+    private final Set<Digest> failed = new HashSet<>();
+    /**
+     * failures of this run which weren't uploaded later on
+     */
+    private final Set<Digest> failures = new HashSet<>();
+    private DataOutputStream out;
+    private boolean finished;
+    private String discarded;
+
+    private UploadJournal(File file, String account) {
+        this.file = file;
+        this.account = account;
+    }
+
+    /**
+     * Each account and endpoint has a journal of its own, so runs uploading to
+     * different accounts don't discard each other's journal.
+     *
+     * @return journal file name, e.g. <code>upload-journal-0123456789abcdef.bin</code>
+     */
+    static String fileName(String userId, String syncUrl) {
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        var key = Digest.of(md5.digest((userId + " " + syncUrl).getBytes(UTF_8))).toHex().substring(0, 16);
+        return "upload-journal-" + key + ".bin";
+    }
+
+    /**
+     * Open the journal, reading the records of an interrupted run if there are
+     * any and they went to the same account and endpoint.
+     *
+     * @param userId  user id of the account uploaded to
+     * @param syncUrl upload endpoint
+     */
+    static UploadJournal open(File file, String userId, String syncUrl) throws IOException {
+        var journal = new UploadJournal(file, userId + " " + syncUrl);
+        var validLength = file.exists() ? journal.read() : 0;
+        if (validLength > 0) {
+            if (validLength < file.length()) {
+                // drop a record torn by a crash
+                try (var channel = new FileOutputStream(file, true).getChannel()) {
+                    channel.truncate(validLength);
+                }
+            }
+            journal.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        } else {
+            journal.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            journal.writeHeader(journal.out);
+            journal.out.flush();
+        }
+        return journal;
+    }
+
+    /**
+     * @return why the journal file was discarded as corrupt, or null
+     */
+    String discarded() {
+        return discarded;
+    }
+
+    /**
+     * @return digests confirmed as uploaded by an interrupted run
+     */
+    MD5Set uploaded() {
+        return uploaded;
+    }
+
+    /**
+     * @return number of digests which failed in an interrupted run and weren't uploaded since
+     */
+    int previousFailures() {
+        return failed.size();
+    }
+
+    void uploaded(Digest md5) {
+        append(UPLOADED, md5);
+        synchronized (this) {
+            failures.remove(md5);
+        }
+    }
+
+    void failed(Digest md5) {
+        append(FAILED, md5);
+        synchronized (this) {
+            failures.add(md5);
+        }
+    }
+
+    /**
+     * Mark the run as finished, all tracks were processed. The uploads are
+     * dropped from the journal right away, the failures are kept.
+     */
+    synchronized void finished() throws IOException {
+        finished = true;
+        out.close();
+        rewrite();
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+
+    /**
+     * Close the journal. If the run finished, delete it, or keep only the
+     * failures if there were any.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+        if (!finished) {
+            return;
+        }
+        if (failures.isEmpty()) {
+            Files.delete(file.toPath());
+        } else {
+            rewrite();
+        }
+    }
+
+    /**
+     * replace the file with one holding the failures of this run only
+     */
+    private void rewrite() throws IOException {
+        var tmp = new File(file.getPath() + ".tmp");
+        try (var tmpOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            writeHeader(tmpOut);
+            for (var md5 : failures) {
+                tmpOut.writeByte(FAILED);
+                tmpOut.writeLong(md5.hi);
+                tmpOut.writeLong(md5.lo);
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    private synchronized void append(byte status, Digest md5) {
+        try {
+            out.writeByte(status);
+            out.writeLong(md5.hi);
+            out.writeLong(md5.lo);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeHeader(DataOutputStream out) throws IOException {
+        var bytes = account.getBytes(UTF_8);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * @return length of the valid part of the file, 0 if it is a journal of
+     * another account, endpoint or format version, or corrupt
+     */
+    private long read() throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                discarded = "not an upload journal";
+                return 0;
+            }
+            if (in.readInt() != VERSION) {
+                return 0;
+            }
+            var bytes = new byte[in.readUnsignedShort()];
+            in.readFully(bytes);
+            if (!account.equals(new String(bytes, UTF_8))) {
+                return 0;
+            }
+            long validLength = 4 + 4 + 2 + bytes.length;
+            while (true) {
+                try {
+                    var status = in.readByte();
+                    var hi = in.readLong();
+                    var lo = in.readLong();
+                    if (status == UPLOADED) {
+                        uploaded.add(hi, lo);
+                        failed.remove(new Digest(hi, lo));
+                    } else if (status == FAILED) {
+                        failed.add(new Digest(hi, lo));
+                    } else {
+                        // garbage, treat like a torn record
+                        return validLength;
+                    }
+                    validLength += RECORD_SIZE;
+                } catch (EOFException e) {
+                    return validLength;
+                }
+            }
+        } catch (EOFException e) {
+            // torn header
+            discarded = "truncated header";
+            return 0;
+        }
+    }
+}
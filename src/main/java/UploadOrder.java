@@ -0,0 +1,58 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Order in which tracks enter the upload pipeline.
+ * <p>
+ * All orders but {@link #SCAN} wait for the scan to complete and sort the
+ * tracks by the sizes and paths the scanner found.
+ */
+enum UploadOrder {
+
+    /**
+     * as found by the scanner, uploads start while scanning
+     */
+    SCAN(null),
+
+    /**
+     * by relative path, reproducible from run to run
+     */
+    PATH(Comparator.comparing(track -> track.relativePath)),
+
+    /**
+     * largest files first, so no upload thread is left with a big file at
+     * the end while the others are idle (longest processing time first)
+     */
+    LARGEST(Comparator.<Track>comparingLong(track -> track.size).reversed()
+            .thenComparing(track -> track.relativePath)),
+
+    /**
+     * smallest files first, for the most files uploaded early on
+     */
+    SMALLEST(Comparator.<Track>comparingLong(track -> track.size)
+            .thenComparing(track -> track.relativePath));
+
+    private final Comparator<Track> comparator;
+
+    UploadOrder(Comparator<Track> comparator) {
+        this.comparator = comparator;
+    }
+
+    /**
+     * @return source producing the tracks of the given source in this order
+     */
+    UploadPipeline.Source apply(UploadPipeline.Source source) {
+        if (comparator == null) {
+            return source;
+        }
+        return sink -> {
+            // the scanner may call the sink from several threads
+            var found = new ConcurrentLinkedQueue<Track>();
+            source.scan(found::add);
+            var tracks = new ArrayList<>(found);
+            tracks.sort(comparator);
+            tracks.forEach(sink);
+        };
+    }
+}
@@ -0,0 +1,227 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Staged scan &rarr; hash &rarr; upload pipeline.
+ * <p>
+ * A single scanner thread feeds the tracks found by a {@link Source} into a
+ * bounded hash queue. A pool of hash threads computes the md5 sums and passes
+ * the tracks on into a bounded upload queue, which is drained by a separate
+ * pool of upload threads. Disk bound hashing and network bound uploading thus
+ * overlap, and every stage blocks when the next one can't keep up. The time
+ * the scanner is blocked is recorded in the {@link Metrics}.
+ * <p>
+ * The first exception thrown by any stage cancels the whole pipeline and is
+ * rethrown by {@link #run}.
+ */
+class UploadPipeline {
+
+    /**
+     * Produces the tracks to process. The sink blocks while the hash queue is full.
+     */
+    @FunctionalInterface
+    interface Source {
+        void scan(Consumer<Track> sink) throws IOException;
+    }
+
+    /**
+     * Processes a single track.
+     */
+    @FunctionalInterface
+    interface Stage {
+        void process(Track track) throws IOException;
+    }
+
+    /**
+     * number of queue slots per worker thread
+     */
+    private static final int QUEUE_SLOTS_PER_THREAD = 4;
+
+    /**
+     * end-of-stream marker, one per worker thread
+     */
+    private static final Track END = new Track(null, null, null, 0, 0);
+
+    private final int hashThreads;
+    private final int uploadThreads;
+    private final Metrics metrics;
+    private final BlockingQueue<Track> hashQueue;
+    private final BlockingQueue<Track> uploadQueue;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final AtomicInteger hashersLeft;
+
+    private ExecutorService scanner;
+    private ExecutorService hashPool;
+    private ExecutorService uploadPool;
+
+    UploadPipeline(int hashThreads, int uploadThreads, Metrics metrics) {
+        this.hashThreads = hashThreads;
+        this.uploadThreads = uploadThreads;
+        this.metrics = metrics;
+        this.hashQueue = new ArrayBlockingQueue<>(QUEUE_SLOTS_PER_THREAD * hashThreads);
+        this.uploadQueue = new ArrayBlockingQueue<>(QUEUE_SLOTS_PER_THREAD * uploadThreads);
+        this.hashersLeft = new AtomicInteger(hashThreads);
+    }
+
+    /**
+     * Run the pipeline until the source is exhausted and all tracks are uploaded.
+     *
+     * @param source produces the tracks
+     * @param hash   computes the md5 sum of a track
+     * @param upload uploads a track
+     */
+    void run(Source source, Stage hash, Stage upload) throws IOException {
+        scanner = Executors.newSingleThreadExecutor(threadFactory("scan"));
+        hashPool = Executors.newFixedThreadPool(hashThreads, threadFactory("hash"));
+        uploadPool = Executors.newFixedThreadPool(uploadThreads, threadFactory("upload"));
+
+        scanner.execute(() -> scan(source));
+        for (var i = 0; i < hashThreads; i++) {
+            hashPool.execute(() -> hash(hash));
+        }
+        for (var i = 0; i < uploadThreads; i++) {
+            uploadPool.execute(() -> upload(upload));
+        }
+        scanner.shutdown();
+        hashPool.shutdown();
+        uploadPool.shutdown();
+
+        try {
+            awaitTermination(scanner);
+            awaitTermination(hashPool);
+            awaitTermination(uploadPool);
+        } catch (InterruptedException e) {
+            cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("upload interrupted");
+        }
+
+        var t = failure.get();
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else if (t != null) {
+            throw new IOException(t);
+        }
+    }
+
+    private void scan(Source source) {
+        try {
+            source.scan(track -> {
+                if (hashQueue.offer(track)) {
+                    return;
+                }
+                // hashing can't keep up
+                metrics.scanBlocked();
+                try {
+                    hashQueue.put(track);
+                } catch (InterruptedException e) {
+                    throw new CancellationException();
+                } finally {
+                    metrics.scanUnblocked();
+                }
+            });
+        } catch (UncheckedIOException e) {
+            fail(e.getCause());
+        } catch (Throwable t) {
+            fail(t);
+        } finally {
+            endOfStream(hashQueue, hashThreads);
+        }
+    }
+
+    private void hash(Stage stage) {
+        try {
+            while (true) {
+                var track = hashQueue.take();
+                if (track == END) {
+                    break;
+                }
+                stage.process(track);
+                uploadQueue.put(track);
+            }
+        } catch (InterruptedException e) {
+            // cancelled
+        } catch (UncheckedIOException e) {
+            fail(e.getCause());
+        } catch (Throwable t) {
+            fail(t);
+        } finally {
+            if (hashersLeft.decrementAndGet() == 0) {
+                endOfStream(uploadQueue, uploadThreads);
+            }
+        }
+    }
+
+    private void upload(Stage stage) {
+        try {
+            while (true) {
+                var track = uploadQueue.take();
+                if (track == END) {
+                    break;
+                }
+                stage.process(track);
+            }
+        } catch (InterruptedException e) {
+            // cancelled
+        } catch (UncheckedIOException e) {
+            fail(e.getCause());
+        } catch (Throwable t) {
+            fail(t);
+        }
+    }
+
+    private void fail(Throwable t) {
+        if (failure.compareAndSet(null, t)) {
+            cancel();
+        }
+    }
+
+    private void cancel() {
+        scanner.shutdownNow();
+        hashPool.shutdownNow();
+        uploadPool.shutdownNow();
+    }
+
+    private static void endOfStream(BlockingQueue<Track> queue, int consumers) {
+        try {
+            for (var i = 0; i < consumers; i++) {
+                queue.put(END);
+            }
+        } catch (InterruptedException e) {
+            // cancelled, consumers are interrupted as well
+        }
+    }
+
+    private static void awaitTermination(ExecutorService executor) throws InterruptedException {
+        while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+            // keep waiting
+        }
+    }
+
+    /**
+     * @return factory of daemon threads named name-1, name-2, ...
+     */
+    static ThreadFactory threadFactory(String name) {
+        var count = new AtomicInteger();
+        return runnable -> {
+            var thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,122 @@
+import java.io.Closeable;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Hashes the tracks found while the user is asked to confirm the upload, and
+ * tells how much of them would be uploaded.
+ * <p>
+ * The md5 sums in the cache are looked up right away, so the first summary
+ * has them. The md5 sums computed here are set on the tracks and recorded in
+ * the md5 cache, so the upload doesn't compute them again. Tracks not hashed
+ * yet when the preview is closed are left to the upload pipeline.
+ */
+class UploadPreview implements Closeable {
+
+    private static final double MB = 1024 * 1024;
+
+    private final List<Track> tracks;
+    private final CompletableFuture<MD5Set> knownMD5;
+    private final AtomicReferenceArray<Digest> digests;
+    private final ExecutorService hashPool;
+    private volatile boolean closed;
+
+    /**
+     * Start hashing.
+     *
+     * @param knownMD5 md5 sums known to the server, may still be in transfer
+     * @param threads  number of threads computing md5 sums
+     */
+    UploadPreview(Collection<Track> tracks, CompletableFuture<MD5Set> knownMD5, int threads) {
+        this.tracks = new ArrayList<>(tracks);
+        this.knownMD5 = knownMD5;
+        this.digests = new AtomicReferenceArray<>(this.tracks.size());
+        this.hashPool = Executors.newFixedThreadPool(threads, UploadPipeline.threadFactory("preview"));
+        for (var i = 0; i < this.tracks.size(); i++) {
+            var track = this.tracks.get(i);
+            if (track.md5 == null) {
+                track.md5 = track.cache.getCachedMD5Sum(track.relativePath, track.lastModified, track.size);
+            }
+            if (track.md5 != null) {
+                digests.set(i, track.md5);
+            } else {
+                var index = i;
+                hashPool.execute(() -> hash(index));
+            }
+        }
+        hashPool.shutdown();
+    }
+
+    /**
+     * @return how many files and bytes are new to the server, as far as
+     * known yet
+     */
+    String summary() {
+        var pending = 0;
+        var known = 0;
+        var duplicates = 0;
+        var fresh = 0;
+        var freshBytes = 0L;
+        var server = knownMD5.isDone() && !knownMD5.isCompletedExceptionally() ? knownMD5.join() : null;
+        var seen = new HashSet<Digest>();
+        for (var i = 0; i < tracks.size(); i++) {
+            var md5 = digests.get(i);
+            if (md5 == null || server == null) {
+                pending++;
+            } else if (server.contains(md5)) {
+                known++;
+            } else if (!seen.add(md5)) {
+                duplicates++;
+            } else {
+                fresh++;
+                freshBytes += tracks.get(i).size;
+            }
+        }
+        var sb = new StringBuilder(String.format(Locale.ROOT, "%d new files, %.1f MB to upload; %d already uploaded",
+                fresh, freshBytes / MB, known));
+        if (duplicates > 0) {
+            sb.append(", ").append(duplicates).append(" duplicates");
+        }
+        if (pending > 0) {
+            sb.append(server == null ? ", waiting for the server's md5 listing" : ", " + pending + " files still to check");
+        }
+        return sb.append(".\n").toString();
+    }
+
+    /**
+     * Stop hashing, waiting for the files being hashed right now.
+     */
+    @Override
+    public void close() throws InterruptedIOException {
+        closed = true;
+        try {
+            hashPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("preview interrupted");
+        }
+    }
+
+    private void hash(int index) {
+        if (closed) {
+            return;
+        }
+        var track = tracks.get(index);
+        try {
+            track.md5 = track.cache.getMD5Sum(track.file, track.relativePath, track.lastModified, track.size);
+            digests.set(index, track.md5);
+        } catch (UncheckedIOException e) {
+            // unreadable, the upload reports it
+        }
+    }
+}
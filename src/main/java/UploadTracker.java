@@ -0,0 +1,78 @@
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Uploads of the current run, by content.
+ * <p>
+ * Libraries often hold the same track more than once, e.g. on an album and
+ * on a compilation. The first track with a given md5 sum claims its upload;
+ * copies found while it is in flight wait for its result instead of sending
+ * the same content again, and copies found later see it succeeded. Failed
+ * uploads are forgotten, so a copy found after a failure tries again.
+ */
+class UploadTracker {
+
+    private final Map<Digest, Upload> uploads = new ConcurrentHashMap<>();
+
+    /**
+     * @return whether content with this md5 sum was claimed in this run and
+     * didn't fail
+     */
+    boolean contains(Digest md5) {
+        return uploads.containsKey(md5);
+    }
+
+    /**
+     * Claim the upload of a track's content.
+     *
+     * @return null if the caller claimed the upload and must call
+     * {@link #finished(Track, boolean)}, otherwise the upload of the same
+     * content claimed before
+     */
+    Upload claim(Track track) {
+        return uploads.putIfAbsent(track.md5, new Upload(track.relativePath));
+    }
+
+    /**
+     * Publish the result of a claimed upload.
+     */
+    void finished(Track track, boolean success) {
+        var upload = success ? uploads.get(track.md5) : uploads.remove(track.md5);
+        upload.result.complete(success);
+    }
+
+    /**
+     * Upload claimed by the first track with some content.
+     */
+    static class Upload {
+        /**
+         * relative path of the track which claimed the upload
+         */
+        final String relativePath;
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        private Upload(String relativePath) {
+            this.relativePath = relativePath;
+        }
+
+        /**
+         * Wait for the upload to finish.
+         *
+         * @return whether it succeeded
+         */
+        boolean await() throws InterruptedIOException {
+            try {
+                return result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("upload interrupted");
+            } catch (ExecutionException e) {
+                // never completed exceptionally
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+}
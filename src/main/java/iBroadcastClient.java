@@ -0,0 +1,236 @@
+import org.json.JSONObject;
+
+import javax.net.ssl.SSLContext;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Talks with the iBroadcast servers.
+ * <p>
+ * All requests share one {@link HttpClient}, which keeps connections alive
+ * and reuses them for subsequent requests, and negotiates HTTP/2 where the
+ * server offers it. At most <code>connections</code> requests are in flight
+ * at the same time, and a request holds its permit until its response is
+ * read completely, by then its connection is back in the pool. So the
+ * number of open connections is bounded as well, per client.
+ * <p>
+ * Every request has a timeout, so a stalled connection fails and the upload
+ * gets retried. An upload may take the time its body needs at a minimum rate
+ * on top of the timeout.
+ */
+class iBroadcastClient {
+
+    private static final Duration RESPONSE_TIMEOUT = Duration.ofMinutes(2);
+    /**
+     * slowest upload rate in bytes/s which doesn't count as stalled
+     */
+    private static final long MIN_UPLOAD_RATE = 16 * 1024;
+
+    private final URI loginUrl;
+    private final URI syncUrl;
+    private final HttpClient http;
+    private final int maxConnections;
+    private final Semaphore connections;
+    private final BandwidthLimiter limiter;
+    private volatile ContentTypes contentTypes = ContentTypes.of(null);
+
+    /**
+     * @param loginUrl    login endpoint
+     * @param syncUrl     md5 listing and upload endpoint
+     * @param connections maximum number of concurrent requests and pooled connections
+     * @param limiter     limits the aggregate upload bandwidth
+     */
+    iBroadcastClient(String loginUrl, String syncUrl, int connections, BandwidthLimiter limiter) {
+        this(loginUrl, syncUrl, connections, limiter, null);
+    }
+
+    /**
+     * @param sslContext trusts the certificates of the servers, or null for the default one
+     */
+    iBroadcastClient(String loginUrl, String syncUrl, int connections, BandwidthLimiter limiter,
+                     SSLContext sslContext) {
+        this.loginUrl = URI.create(loginUrl);
+        this.syncUrl = URI.create(syncUrl);
+        var builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofSeconds(30));
+        if (sslContext != null) {
+            builder.sslContext(sslContext);
+        }
+        this.http = builder.build();
+        this.maxConnections = connections;
+        this.connections = new Semaphore(connections);
+        this.limiter = limiter;
+    }
+
+    /**
+     * Inital request, verifies username/password. Learns the content types
+     * of the supported file types for the uploads.
+     *
+     * @return user data containing user_id/token and supported file types
+     */
+    JSONObject login(String email, String password) throws IOException {
+        Map<String, Object> req = new HashMap<>();
+        req.put("mode", "status");
+        req.put("email_address", email);
+        req.put("password", password);
+        req.put("version", ".1");
+        req.put("client", "java uploader script");
+        req.put("supported_types", 1);
+
+        // Convert request to json
+        var jsonOut = new JSONObject(req).toString();
+
+        // Post it to json.ibroadcast.com
+        var userData = post(loginUrl, jsonOut, "application/json");
+        contentTypes = ContentTypes.of(userData.optJSONArray("supported"));
+        return userData;
+    }
+
+    /**
+     * Get MD5 sums of all known files stored on server.
+     *
+     * @param userId user id
+     * @param token  user token
+     * @return set of MD5 digests
+     */
+    MD5Set getMD5(String userId, String token) throws IOException {
+        var request = HttpRequest.newBuilder(syncUrl)
+                .timeout(RESPONSE_TIMEOUT)
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .header("Accept-Encoding", "gzip")
+                .POST(HttpRequest.BodyPublishers.ofString("user_id=" + userId + "&token=" + token))
+                .build();
+        return sendAndRead(request, response -> {
+            var gzip = response.headers().firstValue("Content-Encoding")
+                    .map(encoding -> encoding.equalsIgnoreCase("gzip"))
+                    .orElse(false);
+            var body = response.body();
+            try (var in = gzip ? new GZIPInputStream(body, 65536) : body) {
+                var md5 = MD5ListingParser.parse(in);
+                // the parser stops at the end of the object, a connection
+                // closed before the end of its response isn't reused
+                body.transferTo(OutputStream.nullOutputStream());
+                return md5;
+            }
+        });
+    }
+
+    /**
+     * Talk with iBroadcast, posting data and uploading file
+     *
+     * @param file         file to upload
+     * @param relativePath path relative to root dir
+     * @param userId       user id
+     * @param token        user token
+     * @return response code
+     */
+    int upload(File file, String relativePath, String userId, String token)
+            throws IOException {
+        // creates a unique boundary based on time stamp
+        var body = new MultipartBody("===" + System.currentTimeMillis() + "===")
+                .addFilePart("file", file, contentTypes.get(file))
+                .addParameter("file_path", relativePath)
+                .addParameter("method", "java uploader")
+                .addParameter("user_id", userId)
+                .addParameter("token", token);
+
+        var publisher = body.publisher(limiter);
+        var request = HttpRequest.newBuilder(syncUrl)
+                .timeout(RESPONSE_TIMEOUT.plusSeconds(body.length() / minUploadRate()))
+                .header("Content-Type", body.contentType())
+                .header("User-Agent", "java uploader")
+                .POST(publisher)
+                .build();
+        return send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    /**
+     * @return slowest expected rate of a single upload, in bytes/s
+     */
+    private long minUploadRate() {
+        var limit = limiter.currentRate();
+        if (limit == 0) {
+            return MIN_UPLOAD_RATE;
+        }
+        // the uploads in flight share the limited bandwidth
+        return Math.max(1, Math.min(MIN_UPLOAD_RATE, limit / maxConnections / 2));
+    }
+
+    /**
+     * Talk with iBroadcast, posting data
+     *
+     * @param url         post url
+     * @param content     post data
+     * @param contentType content type or null
+     * @return response content, in json object format
+     */
+    private JSONObject post(URI url, String content, String contentType)
+            throws IOException {
+        var request = HttpRequest.newBuilder(url)
+                .timeout(RESPONSE_TIMEOUT)
+                .POST(HttpRequest.BodyPublishers.ofString(content));
+        if (contentType != null) {
+            request.header("Content-Type", contentType);
+        }
+        var response = send(request.build(), HttpResponse.BodyHandlers.ofString());
+
+        // Parse the response
+        return new JSONObject(response.body());
+    }
+
+    /**
+     * Send a request and read its response body as a stream, holding the
+     * permit until the body is read.
+     */
+    private <T> T sendAndRead(HttpRequest request, BodyReader<T> reader) throws IOException {
+        try {
+            connections.acquire();
+            try {
+                return reader.read(http.send(request, HttpResponse.BodyHandlers.ofInputStream()));
+            } finally {
+                connections.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("request interrupted: " + request.uri());
+        }
+    }
+
+    /**
+     * Send a request, the handler reads the response body before it returns.
+     */
+    private <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler)
+            throws IOException {
+        try {
+            connections.acquire();
+            try {
+                return http.send(request, handler);
+            } finally {
+                connections.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("request interrupted: " + request.uri());
+        }
+    }
+
+    /**
+     * Reads a streamed response body, and closes it.
+     */
+    private interface BodyReader<T> {
+        T read(HttpResponse<InputStream> response) throws IOException;
+    }
+}
@@ -1,35 +1,27 @@
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import javax.activation.MimetypesFileTypeMap;
-import javax.net.ssl.HttpsURLConnection;
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.List;
 import java.util.Scanner;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
-
-import static java.util.Collections.emptySet;
+import java.util.stream.Collectors;
 
 /**
  * For testing and development, create a free account at iBroadcast.com. The
@@ -38,7 +30,7 @@ import static java.util.Collections.emptySet;
  * <p>
  * The script works by:
  * <pre>
- * java -jar ibroadcast-uploader.jar &lt;email-address&gt; &lt;password&gt; [&lt;dir&gt;]
+ * java -jar ibroadcast-uploader.jar [options] &lt;email-address&gt; &lt;password&gt; [&lt;dir&gt;]
  * </pre>
  * The basic steps are:
  * <ol>
@@ -46,36 +38,49 @@ import static java.util.Collections.emptySet;
  * <li>Capture the supported file types from the server</li>
  * <li>Use user_id and token for subsequent requests returned from initial request</li>
  * <li>Get md5 listing of user's files (songs in their library) from iBroadcast server</li>
- * <li>Find supported music files locally, give the user option to list those files found</li>
- * <li>Upload files to iBroadcast via http/post</li>
+ * <li>Find supported music files locally in parallel, give the user option to list those files found</li>
+ * <li>Upload files to iBroadcast via http/post, hashing and uploading in parallel</li>
  * <li>Skip songs already uploaded (via md5 compare)</li>
  * </ol>
  */
 public class iBroadcastUploader {
 
-    private static final String CHARSET = "UTF-8";
-    private static final CharSequence CR_LF = "\r\n";
-    private static final int bufferSize = 32 * 4096;
+    private static Console console;
 
     /**
      * @param args command line arguments
      */
     public static void main(String[] args) throws IOException {
-        // command line arguments are email address and password
-        if (args.length < 2 || args.length > 3
-                || args[0].length() == 0 || args[1].length() == 0
-                || args[0].equals("-h") || args[0].equals("--help") || args[0].equals("/?")) {
-            var usage = "Run this script in the parent directory of your music files\n"
-                    + "or give the music directory as third argument.\n"
-                    + "\n"
-                    + "Usage: java -jar ibroadcast-uploader.jar"
-                    + " <email-address> <password> [<dir>]\n";
-            error(usage);
+        // command line arguments are email address, password and options
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            console = new Console(Console.Mode.LOG);
+            error(e.getMessage().isEmpty() ? Options.USAGE : e.getMessage() + "\n\n" + Options.USAGE);
+            // java compiler needs it
+            return;
         }
 
+        console = new Console(options.output);
+        try {
+            run(options);
+        } finally {
+            console.close();
+        }
+    }
+
+    private static void run(Options options) throws IOException {
+        var metrics = new Metrics();
+        var client = new iBroadcastClient(options.loginUrl, options.syncUrl, options.connections,
+                new BandwidthLimiter(options.bandwidth, options.bandwidthSchedule));
+
         // Inital request, verifies username/password, returns user_id/token and
         // supported file types
-        var userData = login(args[0], args[1]);
+        message("Login...\n");
+        var loginStart = System.nanoTime();
+        var userData = client.login(options.email, options.password);
+        metrics.phase("login", loginStart);
 
         String userId, token;
         try {
@@ -93,40 +98,87 @@ public class iBroadcastUploader {
         // convert the supported extensions array to a set
         var supported = getSupportedExtensions(userData);
 
-        // current working directory
-        var dir = args.length == 3 ? args[2] : System.getProperty("user.dir");
-        // Get files from current working directory
-        var rootDir = new File(dir);
-        message("Collecting files to upload in " + rootDir.getAbsolutePath() + " ...\n");
-        var listFileTree = listFileTree(rootDir, supported);
-        message("Found " + listFileTree.size() + " files.\n");
-        if (listFileTree.isEmpty()) {
-            return;
-        }
-        // confirm upload with user
-        var upload = confirm(listFileTree);
-        // upload
-        if (upload) {
-            uploadFiles(listFileTree, userId, token, rootDir);
-        }
-    }
-
-    private static JSONObject login(String email, String password) throws IOException {
-        message("Login...\n");
+        // fetch the md5 listing while the cache is loaded and the music folder scanned
+        message("Getting checksums...\n");
+        var knownMD5 = CompletableFuture.supplyAsync(() -> {
+            var listingStart = System.nanoTime();
+            try {
+                return client.getMD5(userId, token);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                metrics.phase("listing", listingStart);
+            }
+        });
 
-        Map<String, Object> req = new HashMap<>();
-        req.put("mode", "status");
-        req.put("email_address", email);
-        req.put("password", password);
-        req.put("version", ".1");
-        req.put("client", "java uploader script");
-        req.put("supported_types", 1);
+        // Get files from music folders, defaults to current working directory
+        for (var dir : options.dirs) {
+            if (!dir.isDirectory()) {
+                error("Error: not a directory: " + dir.getAbsolutePath() + "\n");
+            }
+        }
+        Files.createDirectories(options.cacheDir.toPath());
 
-        // Convert request to json
-        var jsonOut = new JSONObject(req).toString();
+        var cacheStart = System.nanoTime();
+        var folders = new ArrayList<MusicFolder>();
+        try {
+            for (var dir : options.dirs) {
+                folders.add(MusicFolder.open(dir, options.cacheDir, supported, options, metrics));
+            }
+            metrics.phase("cache", cacheStart);
+            var names = folders.stream().map(folder -> folder.dir.getAbsolutePath()).collect(Collectors.joining(", "));
+
+            // register the trees before scanning, so no change gets lost in between
+            var scanner = folders.get(0).scanner;
+            var watcher = options.watch ? new DirectoryWatcher(
+                    folders.stream().map(folder -> folder.dir.toPath()).collect(Collectors.toList()),
+                    (path, attrs) -> attrs.isRegularFile() && scanner.isSupported(path.getFileName().toString()),
+                    options.watchDelay * 1000L) : null;
+
+            if (options.yes) {
+                // non-interactive: stream the files found straight into the upload
+                message("Uploading files in " + names + " ...\n");
+                uploadFiles(client, folders, knownMD5, sink -> {
+                            var scanStart = System.nanoTime();
+                            var scanWait = metrics.scanWaitNanos();
+                            for (var folder : folders) {
+                                folder.scanner.scan(folder.dir, sink);
+                            }
+                            // less the time blocked on the hash queue
+                            metrics.phase("scan", scanStart + metrics.scanWaitNanos() - scanWait);
+                        },
+                        0, userId, token, options, metrics, watcher);
+                return;
+            }
 
-        // Post it to json.ibroadcast.com
-        return post("https://json.ibroadcast.com/s/JSON/status", jsonOut, "application/json");
+            message("Collecting files to upload in " + names + " ...\n");
+            var scanStart = System.nanoTime();
+            var listFileTree = new ArrayList<Track>();
+            for (var folder : folders) {
+                listFileTree.addAll(listFileTree(folder.dir, folder.scanner));
+            }
+            metrics.phase("scan", scanStart);
+            message("Found " + listFileTree.size() + " files.\n");
+            if (listFileTree.isEmpty()) {
+                return;
+            }
+            // confirm upload with user, hashing in the meantime
+            boolean upload;
+            try (var preview = new UploadPreview(listFileTree, knownMD5, options.hashThreads)) {
+                // without the server's md5 sums the summary can't tell anything
+                await(knownMD5);
+                upload = confirm(listFileTree, preview);
+            }
+            // upload
+            if (upload) {
+                uploadFiles(client, folders, knownMD5, sink -> listFileTree.forEach(sink),
+                        listFileTree.size(), userId, token, options, metrics, watcher);
+            }
+        } finally {
+            for (var folder : folders) {
+                folder.close();
+            }
+        }
     }
 
     private static Set<String> getSupportedExtensions(JSONObject userData) {
@@ -143,291 +195,354 @@ public class iBroadcastUploader {
     }
 
     /**
-     * Prompt for upload.
+     * Prompt for upload. On a terminal, the summary of the preview is updated
+     * in the status line until the user answers.
      *
-     * @param files music files found
+     * @param tracks  music files found
+     * @param preview tells how much would be uploaded
      */
-    private static boolean confirm(Collection<File> files) {
-        message("Press 'L' to list, 'U' to start the upload, or 'Q' to quit.\n");
+    private static boolean confirm(Collection<Track> tracks, UploadPreview preview) {
+        prompt(preview.summary());
+        prompt("Press 'L' to list, 'U' to start the upload, or 'Q' to quit.\n");
 
         var list = Pattern.compile("L", Pattern.CASE_INSENSITIVE);
         var upload = Pattern.compile("U", Pattern.CASE_INSENSITIVE);
 
         var sc = new Scanner(System.in);
+        var refresh = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "preview-summary");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (console.isTTY()) {
+            var shown = new AtomicReference<>(preview.summary());
+            refresh.scheduleWithFixedDelay(() -> {
+                // only when changed, a redraw clears what the user typed so far
+                var summary = preview.summary();
+                if (!summary.equals(shown.getAndSet(summary))) {
+                    console.progress(summary);
+                }
+            }, 1, 1, TimeUnit.SECONDS);
+        }
 
         try (sc) {
+            console.flush();
             var userInput = sc.next();
             if (list.matcher(userInput).matches()) {
-                message("\nListing found, supported files\n");
-                for (var file : files) {
-                    message(" - " + file + "\n");
-                }
-                message("Press 'U' to start the upload if this looks reasonable, " +
+                prompt("\nListing found, supported files\n");
+                tracks.stream()
+                        .map(track -> track.file)
+                        .sorted()
+                        .forEach(file -> prompt(" - " + file + "\n"));
+                prompt(preview.summary());
+                prompt("Press 'U' to start the upload if this looks reasonable, " +
                         "or 'Q' to quit.\n");
+                console.flush();
                 userInput = sc.next();
             }
             if (upload.matcher(userInput).matches()) {
                 return true;
             } else {
-                message("aborted.\n");
+                prompt("aborted.\n");
                 return false;
             }
+        } finally {
+            refresh.shutdownNow();
+            if (console.isTTY()) {
+                console.progress("");
+            }
         }
     }
 
     /**
-     * Get MD5 sums of all known files stored on server.
+     * Get supported media files from directory
      *
-     * @param userId user id
-     * @param token  user token
-     * @return set of MD5 strings
+     * @param dir     top-level directory containing media files
+     * @param scanner finds the supported media files
+     * @return collection of tracks, in no particular order
      */
-    private static Set<String> getMD5(String userId, String token) throws IOException {
-        var md5Object = post("https://sync.ibroadcast.com",
-                "user_id=" + userId + "&token=" + token,
-                "application/x-www-form-urlencoded");
-        var jsonArray = md5Object.getJSONArray("md5");
-        var ret = new HashSet<String>();
-        for (var i = 0; i < jsonArray.length(); i++) {
-            if (!jsonArray.isNull(i)) {
-                var md5 = jsonArray.getString(i);
-                ret.add(md5);
-            }
-        }
-        return ret;
+    static Collection<Track> listFileTree(File dir, DirectoryScanner scanner) throws IOException {
+        var tracks = new ConcurrentLinkedQueue<Track>();
+        scanner.scan(dir, tracks::add);
+        return new ArrayList<>(tracks);
     }
 
     /**
-     * Get supported media files from directory
+     * Upload files through the scan &rarr; hash &rarr; upload pipeline.
      *
-     * @param dir        top-level directory containing media files
-     * @param extensions supported media file extensions
-     * @return collection of files
+     * @param folders         music folders the tracks are in
+     * @param knownMD5Listing md5 sums known to the server, may still be in transfer
+     * @param source          produces the tracks to upload
+     * @param total           number of tracks, or 0 if unknown
+     * @param watcher         if not null, keep uploading the files it reports after the initial upload
      */
-    private static Collection<File> listFileTree(File dir, Set<String> extensions) throws IOException {
-        if (!dir.exists() || !dir.isDirectory()) {
-            error("Error: not a directory: " + dir.getAbsolutePath());
-            return emptySet(); // compiler needs this
-        }
+    private static void uploadFiles(iBroadcastClient client, List<MusicFolder> folders,
+                                    CompletableFuture<MD5Set> knownMD5Listing, UploadPipeline.Source source, int total,
+                                    String userId, String token,
+                                    Options options, Metrics metrics, DirectoryWatcher watcher)
+            throws IOException {
+        var count = new AtomicInteger();
+        var failed = new AtomicInteger();
+        var knownMD5 = await(knownMD5Listing);
+        var uploads = new UploadTracker();
+        var pipeline = new UploadPipeline(options.hashThreads, options.uploadThreads, metrics);
+        var backoff = new Backoff(options.retries, 1000, 60_000);
+        var limiter = new ConcurrencyLimiter(1, options.uploadThreads, options.adaptive, limit -> {
+            metrics.uploadLimit(limit);
+            message("Uploads in flight: " + limit + "\n");
+        });
+        metrics.uploadLimit(limiter.limit());
 
-        var fileTree = new TreeSet<File>();
-        var hiddenFile = Pattern.compile("^\\..*");
-        var extensionMatcher = Pattern.compile(".*(\\..{2,5})");
-
-        Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<>() {
-            @Override
-            public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
-                var filename = path.getFileName().toString();
-                if (attrs.isRegularFile() && !hiddenFile.matcher(filename).matches()) {
-                    var extensionMatch = extensionMatcher.matcher(filename);
-                    if (extensionMatch.matches()) {
-                        // file extension
-                        var extension = extensionMatch.group(1);
-                        if (extensions.contains(extension)) {
-                            fileTree.add(path.toFile());
-                        }
-                    }
-                }
-                return super.visitFile(path, attrs);
-            }
+        var progress = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "progress");
+            thread.setDaemon(true);
+            return thread;
         });
+        if (options.progress > 0) {
+            // on a terminal, the progress line is updated in place every second
+            var interval = console.isTTY() ? 1 : options.progress;
+            progress.scheduleAtFixedRate(() -> console.progress(metrics.progress()),
+                    interval, interval, TimeUnit.SECONDS);
+        }
 
-        return fileTree;
-    }
+        var metricsServer = options.metricsPort > 0 ? new MetricsServer(options.metricsPort, metrics) : null;
 
-    /**
-     * Upload files.
-     */
-    private static void uploadFiles(Collection<File> listFileTree,
-                                    String userId, String token, File rootDir)
-            throws IOException {
-        message("Getting checksums...\n");
-        var total = listFileTree.size();
-        var count = new AtomicInteger();
-        var knownMD5 = getMD5(userId, token);
-        var md5CacheFile = new File(rootDir, "ib-md5-cache.json");
-        var md5Cache = MD5Cache.load(md5CacheFile);
+        var journalFile = new File(options.cacheDir, UploadJournal.fileName(userId, options.syncUrl));
+        try (var journal = UploadJournal.open(journalFile, userId, options.syncUrl)) {
+            if (journal.discarded() != null) {
+                message("Discarded the upload journal " + journalFile + ": " + journal.discarded() + ".\n");
+            }
+            if (journal.uploaded().size() > 0 || journal.previousFailures() > 0) {
+                message("Resuming previous run: " + journal.uploaded().size() + " uploads already done, "
+                        + journal.previousFailures() + " failed uploads to retry.\n");
+                knownMD5.addAll(journal.uploaded());
+            }
+            var batchTotal = new AtomicInteger(total);
+            UploadPipeline.Stage hash = track -> {
+                // set already for tracks from unchanged directories or hashed by the preview
+                if (track.md5 != null) {
+                    return;
+                }
+                try {
+                    track.md5 = track.cache.getMD5Sum(track.file, track.relativePath, track.lastModified, track.size);
+                } catch (UncheckedIOException e) {
+                    // e.g. deleted since it was found, the other tracks go on
+                    failed.incrementAndGet();
+                    metrics.failed();
+                    metrics.processed(track);
+                    console.file(Console.Kind.FAILED, count.incrementAndGet(), batchTotal.get(), track.relativePath,
+                            e.getCause().toString());
+                }
+            };
+            UploadPipeline.Stage upload = track -> {
+                if (track.md5 == null) {
+                    // failed to hash, reported already
+                    return;
+                }
+                if (!uploadFile(client, track, userId, token, knownMD5, uploads, journal, backoff, limiter,
+                        metrics, count.incrementAndGet(), batchTotal.get())) {
+                    failed.incrementAndGet();
+                }
+                metrics.processed(track);
+            };
 
-        try {
             message("Starting upload...\n");
-            listFileTree.parallelStream().forEach(file -> {
-                var relativePath = computeRelativePath(file, rootDir);
-                var cnt = count.incrementAndGet();
-                try {
-                    uploadFile(file, relativePath, userId, token, knownMD5, md5Cache, cnt, total);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
+            var pipelineStart = System.nanoTime();
+            var orderedSource = options.order.apply(source);
+            pipeline.run(sink -> {
+                        orderedSource.scan(track -> {
+                            metrics.scanned(track);
+                            sink.accept(track);
+                        });
+                        metrics.scanFinished();
+                    },
+                    hash, upload);
+            metrics.phase("pipeline", pipelineStart);
+            journal.finished();
+            progress.shutdownNow();
+            console.summary("Processed " + count.get() + " files"
+                    + (failed.get() > 0 ? ", " + failed.get() + " uploads failed" : "") + ".\n");
+            console.summary(metrics.summary());
+            if (options.report != null) {
+                Files.writeString(options.report.toPath(), metrics.toJSON().toString(2));
+                message("Report written to " + options.report + "\n");
+            }
+
+            if (watcher == null) {
+                return;
+            }
+            // the server listing, the cache and the known md5 sums stay in memory,
+            // so every change costs only its own hashing and upload
+            try (watcher) {
+                message("Watching " + folders.stream().map(folder -> folder.dir.getAbsolutePath())
+                        .collect(Collectors.joining(", ")) + " for changes...\n");
+                while (true) {
+                    var changes = watcher.take();
+                    count.set(0);
+                    failed.set(0);
+                    batchTotal.set(changes.size());
+                    new UploadPipeline(options.hashThreads, options.uploadThreads, metrics).run(
+                            options.order.apply(sink -> changes.forEach(change -> {
+                                var file = change.path.toFile();
+                                var folder = folderOf(folders, file);
+                                var track = new Track(folder.cache, file, computeRelativePath(file, folder.dir),
+                                        change.size, change.lastModified);
+                                metrics.scanned(track);
+                                sink.accept(track);
+                            })),
+                            hash, upload);
+                    console.summary("Processed " + count.get() + " files"
+                            + (failed.get() > 0 ? ", " + failed.get() + " uploads failed" : "") + ".\n");
                 }
-            });
-            message("Processed " + listFileTree.size() + " files.\n");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("watch interrupted");
+            }
         } finally {
-            md5Cache.save(md5CacheFile);
-        }
-    }
-
-    private static void uploadFile(File file, String path,
-                                   String userId, String token,
-                                   Set<String> knownMD5, MD5Cache md5Cache,
-                                   int count, int total)
-            throws IOException {
-        var hashText = md5Cache.getMD5Sum(file, path);
-        int len = (int) (Math.log10(total) + 1);
-        var prefix = String.format("%" + len + "d/%" + len + "d: ", count, total);
-        if (knownMD5.contains(hashText)) {
-            message(prefix + "Skipping:  " + path + "\n");
-        } else {
-            message(prefix + "Uploading: " + path + "\n");
-            var status = uploadFile(file, path, userId, token);
-            if (status == HttpURLConnection.HTTP_OK) {
-                message(prefix + "Uploaded:  " + path + "\n");
-            } else {
-                message(prefix + "Failed:    " + path + "\n");
+            progress.shutdownNow();
+            if (metricsServer != null) {
+                metricsServer.close();
             }
         }
     }
 
     /**
-     * Talk with iBroadcast, posting data
+     * Upload a single track unless it is known to the server or its content
+     * is uploaded already in this run.
      *
-     * @param url         post url
-     * @param content     post data
-     * @param contentType content type or null
-     * @return response content, in json object format
+     * @return false if the upload failed
      */
-    private static JSONObject post(String url, String content, String contentType)
+    private static boolean uploadFile(iBroadcastClient client, Track track,
+                                      String userId, String token,
+                                      MD5Set knownMD5, UploadTracker uploads, UploadJournal journal,
+                                      Backoff backoff, ConcurrencyLimiter limiter,
+                                      Metrics metrics, int count, int total)
             throws IOException {
-        var con = (HttpsURLConnection) new URL(url).openConnection();
-
-        // add request method
-        con.setRequestMethod("POST");
-
-        if (contentType != null) {
-            con.setRequestProperty("Content-Type", contentType);
+        var path = track.relativePath;
+        if (knownMD5.contains(track.md5) && !uploads.contains(track.md5)) {
+            metrics.skipped();
+            console.file(Console.Kind.SKIPPING, count, total, path, null);
+            return true;
         }
-
-        // Send post request
-        con.setUseCaches(false);
-        con.setDoOutput(true); // indicates POST method
-        con.setDoInput(true);
-
-        var wr = new DataOutputStream(con.getOutputStream());
-        wr.writeBytes(content);
-        wr.flush();
-        wr.close();
-
-        var in = new BufferedReader(new InputStreamReader(con.getInputStream()));
-        String inputLine;
-        var response = new StringBuilder();
-
-        while ((inputLine = in.readLine()) != null) {
-            response.append(inputLine);
+        var first = uploads.claim(track);
+        if (first != null) {
+            if (first.await()) {
+                metrics.duplicate(track.size);
+                console.file(Console.Kind.DUPLICATE, count, total, path, "same as " + first.relativePath);
+                return true;
+            }
+            metrics.failed();
+            console.file(Console.Kind.FAILED, count, total, path, "same as " + first.relativePath + ", which failed");
+            return false;
+        }
+        var success = false;
+        try {
+            success = sendFile(client, track, userId, token, knownMD5, journal, backoff, limiter, metrics,
+                    count, total);
+            return success;
+        } finally {
+            // also if interrupted, copies waiting for this upload must not hang
+            uploads.finished(track, success);
         }
-        in.close();
-
-        con.disconnect();
-
-        // Parse the response
-        return new JSONObject(response.toString());
     }
 
     /**
-     * Talk with iBroadcast, posting data and uploading file
+     * Upload a track, with retries.
      *
-     * @param file         file to upload
-     * @param relativePath path relative to root dir
-     * @param userId       user id
-     * @param token        user token
-     * @return response code
+     * @return false if the upload failed
      */
-    private static int uploadFile(File file, String relativePath, String userId, String token)
+    private static boolean sendFile(iBroadcastClient client, Track track,
+                                    String userId, String token,
+                                    MD5Set knownMD5, UploadJournal journal,
+                                    Backoff backoff, ConcurrencyLimiter limiter,
+                                    Metrics metrics, int count, int total)
             throws IOException {
-        var con = (HttpsURLConnection) new URL("https://sync.ibroadcast.com")
-                .openConnection();
-
-        // add request method
-        con.setRequestMethod("POST");
-
-        // Send post request
-        con.setUseCaches(false);
-        con.setDoOutput(true); // indicates POST method
-        con.setDoInput(true);
-
-        // creates a unique boundary based on time stamp
-        var boundary = "===" + System.currentTimeMillis() + "===";
-        var contentType = "multipart/form-data; boundary=" + boundary;
-
-        con.setRequestProperty("Content-Type", contentType);
-        con.setRequestProperty("User-Agent", "java uploader");
-
-        try (var outputStream = con.getOutputStream()) {
-            var writer = new PrintWriter(new OutputStreamWriter(
-                    outputStream, CHARSET), true);
-
-            addFilePart(writer, outputStream, file, boundary);
-            addParameter(writer, "file_path", relativePath, boundary);
-            addParameter(writer, "method", "java uploader", boundary);
-            addParameter(writer, "user_id", userId, boundary);
-            addParameter(writer, "token", token, boundary);
-
-            writer.append("--").append(boundary).append("--").append(CR_LF);
-            writer.flush();
-            writer.close();
+        var path = track.relativePath;
+        console.file(Console.Kind.UPLOADING, count, total, path, null);
+        for (var attempt = 1; ; attempt++) {
+            String reason;
+            boolean retry;
+            limiter.acquire();
+            var start = System.nanoTime();
+            var uploaded = 0L;
+            var overloaded = false;
+            try {
+                var status = client.upload(track.file, path, userId, token);
+                if (status == HttpURLConnection.HTTP_OK) {
+                    uploaded = track.file.length();
+                    metrics.uploaded(uploaded, System.nanoTime() - start);
+                    knownMD5.add(track.md5);
+                    journal.uploaded(track.md5);
+                    console.file(Console.Kind.UPLOADED, count, total, path, null);
+                    return true;
+                }
+                reason = "HTTP " + status;
+                retry = Backoff.isTransient(status);
+                overloaded = retry;
+            } catch (IOException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                reason = e.toString();
+                retry = Backoff.isTransient(e);
+                overloaded = retry;
+            } finally {
+                limiter.release(uploaded, System.nanoTime() - start, overloaded);
+            }
+            if (!retry || !backoff.canRetry(attempt)) {
+                metrics.failed();
+                journal.failed(track.md5);
+                console.file(Console.Kind.FAILED, count, total, path, reason);
+                return false;
+            }
+            metrics.retried();
+            console.file(Console.Kind.RETRYING, count, total, path, reason);
+            try {
+                backoff.pause(attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("upload interrupted");
+            }
         }
-
-        con.disconnect();
-
-        return con.getResponseCode();
-    }
-
-    private static String computeRelativePath(File file, File rootDir) {
-        return rootDir.toPath().relativize(file.toPath()).toString();
     }
 
     /**
-     * Adds a upload file section to the request
+     * wait for the md5 listing
      */
-    private static void addFilePart(PrintWriter writer, OutputStream outputStream,
-                                    File uploadFile, String boundary)
-            throws IOException {
-        var fileName = uploadFile.getName();
-        var contentType = MimetypesFileTypeMap.getDefaultFileTypeMap().getContentType(uploadFile);
-        writer.append("--").append(boundary).append(CR_LF)
-                .append("Content-Disposition: form-data; name=\"file\"; filename=\"")
-                .append(fileName).append("\"").append(CR_LF)
-                .append("Content-Type: ").append(contentType).append(CR_LF)
-                .append(CR_LF);
-        writer.flush();
-
-        var inputStream = new FileInputStream(uploadFile);
-        var buffer = new byte[bufferSize];
-        int bytesRead;
-        while ((bytesRead = inputStream.read(buffer)) != -1) {
-            outputStream.write(buffer, 0, bytesRead);
+    private static MD5Set await(CompletableFuture<MD5Set> knownMD5) throws IOException {
+        try {
+            return knownMD5.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
         }
-        outputStream.flush();
-        inputStream.close();
-
-        writer.append(CR_LF);
-        writer.flush();
     }
 
     /**
-     * Adds a parameter to the request
+     * @return the innermost music folder containing the file
      */
-    private static void addParameter(PrintWriter writer, String name,
-                                     String value, String boundary) {
-        writer.append("--").append(boundary).append(CR_LF)
-                .append("Content-Disposition: form-data; name=\"")
-                .append(name).append("\"").append(CR_LF)
-                .append(CR_LF).append(value).append(CR_LF);
-        writer.flush();
+    private static MusicFolder folderOf(List<MusicFolder> folders, File file) {
+        MusicFolder innermost = null;
+        for (var folder : folders) {
+            if (folder.contains(file) && (innermost == null || folder.contains(innermost.dir))) {
+                innermost = folder;
+            }
+        }
+        return innermost;
+    }
+
+    private static String computeRelativePath(File file, File rootDir) {
+        return rootDir.toPath().relativize(file.toPath()).toString();
     }
 
     /**
      * error message and exit
      */
     private static void error(String error) {
-        message(error);
+        console.error(error);
+        console.close();
         System.exit(1);
     }
 
@@ -435,8 +550,14 @@ public class iBroadcastUploader {
      * print message
      */
     private static void message(String message) {
-        System.out.print(message);
-        System.out.flush();
+        console.message(message);
+    }
+
+    /**
+     * print part of a question, also in quiet mode
+     */
+    private static void prompt(String prompt) {
+        console.prompt(prompt);
     }
 
 }
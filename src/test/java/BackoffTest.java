@@ -0,0 +1,38 @@
+import bench.FakeIBroadcastServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BackoffTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void missingFileIsNotRetried() throws Exception {
+        try (var server = new FakeIBroadcastServer()) {
+            var client = new iBroadcastClient(server.loginUrl(), server.syncUrl(), 1,
+                    new BandwidthLimiter(0, List.of()));
+            var missing = dir.resolve("missing.mp3").toFile();
+            // the http client wraps the exception of the body publisher
+            var e = assertThrows(IOException.class, () -> client.upload(missing, "missing.mp3", "1", "fake"));
+            assertFalse(Backoff.isTransient(e), e.toString());
+        }
+    }
+
+    @Test
+    void networkErrorsAreRetried() {
+        assertTrue(Backoff.isTransient(new IOException("connection reset")));
+        assertTrue(Backoff.isTransient(new HttpTimeoutException("request timed out")));
+        assertTrue(Backoff.isTransient(503));
+        assertFalse(Backoff.isTransient(400));
+    }
+}
@@ -0,0 +1,50 @@
+import bench.FakeIBroadcastServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BandwidthLimiterTest {
+
+    private static final int MB = 1024 * 1024;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void parallelUploadsShareTheLimit() throws Exception {
+        var file = Files.write(dir.resolve("track.mp3"), new byte[MB]).toFile();
+        var pool = Executors.newFixedThreadPool(4);
+        try (var server = new FakeIBroadcastServer()) {
+            var client = new iBroadcastClient(server.loginUrl(), server.syncUrl(), 4,
+                    new BandwidthLimiter(MB, List.of()));
+            client.login("test@example.com", "secret");
+
+            var start = System.nanoTime();
+            var statuses = new ArrayList<Future<Integer>>();
+            for (var i = 0; i < 4; i++) {
+                statuses.add(pool.submit(() -> client.upload(file, "track.mp3", "1", "fake")));
+            }
+            for (var status : statuses) {
+                assertEquals(200, (int) status.get());
+            }
+            var seconds = (System.nanoTime() - start) / 1e9;
+
+            // 4 MB at 1 MB/s, less a burst of a quarter second; a limit per
+            // upload would take a second
+            var rate = server.bytesReceived.get() / seconds / MB;
+            assertTrue(seconds > 3.5, String.format("4 uploads took %.2f s", seconds));
+            assertTrue(rate < 1.15, String.format("aggregate rate %.2f MB/s", rate));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ConsoleTest {
+
+    @Test
+    void quietModeShowsPrompts() {
+        var out = new ByteArrayOutputStream();
+        var stdout = System.out;
+        System.setOut(new PrintStream(out, true, UTF_8));
+        try (var console = new Console(Console.Mode.QUIET)) {
+            console.message("Login...\n");
+            console.prompt("Press 'U' to start the upload, or 'Q' to quit.\n");
+            console.file(Console.Kind.UPLOADED, 1, 1, "track.mp3", null);
+        } finally {
+            System.setOut(stdout);
+        }
+        assertEquals("Press 'U' to start the upload, or 'Q' to quit.\n", out.toString(UTF_8));
+    }
+}
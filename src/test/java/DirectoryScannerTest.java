@@ -0,0 +1,69 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class DirectoryScannerTest {
+
+    private static final Set<String> EXTENSIONS = Set.of(".mp3");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void fullScanNoticesFilesModifiedInPlace() throws Exception {
+        var album = Files.createDirectories(dir.resolve("album"));
+        Files.write(album.resolve("a.mp3"), new byte[]{1, 2, 3});
+        Files.write(album.resolve("b.mp3"), new byte[]{4, 5, 6});
+        // settled, so the scanner records the summary of the directory
+        var old = FileTime.fromMillis(System.currentTimeMillis() - 600_000);
+        for (var path : new Path[]{album.resolve("a.mp3"), album.resolve("b.mp3"), album, dir}) {
+            Files.setLastModifiedTime(path, old);
+        }
+
+        var metrics = new Metrics();
+        try (var cache = MD5Cache.open(dir.resolve("cache.bin").toFile(), dir.resolve("legacy.json").toFile(),
+                HashEngine.STREAM, metrics)) {
+            var scanner = new DirectoryScanner(EXTENSIONS, 2, cache, false);
+            for (var track : scan(scanner).values()) {
+                assertNull(track.md5);
+                track.cache.getMD5Sum(track.file, track.relativePath, track.lastModified, track.size);
+            }
+            assertEquals(2, scan(scanner).values().stream().filter(track -> track.md5 != null).count());
+
+            // retagged in place, same size, the directory is unchanged
+            Files.write(album.resolve("a.mp3"), new byte[]{7, 8, 9});
+            Files.setLastModifiedTime(album.resolve("a.mp3"), FileTime.fromMillis(old.toMillis() + 1000));
+            Files.setLastModifiedTime(album, old);
+
+            // the files of an unchanged directory aren't stat'ed
+            assertEquals(old.toMillis(), scan(scanner).get("album/a.mp3").lastModified);
+
+            // a full scan lists the directory, so a.mp3 gets hashed again
+            var track = scan(new DirectoryScanner(EXTENSIONS, 2, cache, true)).get("album/a.mp3");
+            assertNull(track.md5);
+            assertEquals(old.toMillis() + 1000, track.lastModified);
+
+            // until then the cache doesn't match the aggregate of the new summary
+            assertNull(scan(scanner).get("album/b.mp3").md5);
+            track.cache.getMD5Sum(track.file, track.relativePath, track.lastModified, track.size);
+            assertEquals(old.toMillis() + 1000, scan(scanner).get("album/a.mp3").lastModified);
+        }
+    }
+
+    private Map<String, Track> scan(DirectoryScanner scanner) throws Exception {
+        var tracks = new ConcurrentHashMap<String, Track>();
+        scanner.scan(dir.toFile(), track -> tracks.put(track.relativePath.replace('\\', '/'), track));
+        assertEquals(2, tracks.size());
+        return new HashMap<>(tracks);
+    }
+}
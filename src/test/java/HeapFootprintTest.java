@@ -0,0 +1,89 @@
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Heap footprint of the md5 set and the md5 cache at a million entries.
+ * <p>
+ * Needs a larger heap than the other tests, so it runs in a task of its own:
+ * <code>./gradlew heapFootprint</code>.
+ */
+@Tag("footprint")
+class HeapFootprintTest {
+
+    private static final int ENTRIES = 1_000_000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void md5SetTakesAFractionOfHexStrings() {
+        var before = usedHeap();
+        var strings = new HashSet<String>();
+        var random = new Random(1);
+        for (var i = 0; i < ENTRIES; i++) {
+            strings.add(new Digest(random.nextLong(), random.nextLong()).toHex());
+        }
+        var stringBytes = perEntry(usedHeap() - before);
+        assertEquals(ENTRIES, strings.size());
+        strings = null;
+
+        before = usedHeap();
+        var digests = new MD5Set();
+        random = new Random(1);
+        for (var i = 0; i < ENTRIES; i++) {
+            digests.add(random.nextLong(), random.nextLong());
+        }
+        var digestBytes = perEntry(usedHeap() - before);
+        assertEquals(ENTRIES, digests.size());
+
+        System.out.printf("HashSet<String> %.1f bytes/entry, MD5Set %.1f bytes/entry%n", stringBytes, digestBytes);
+        // a table of long pairs, at least 3/8 full
+        assertTrue(digestBytes <= 16 / 0.375 + 1, digestBytes + " bytes/entry");
+        assertTrue(digestBytes < stringBytes / 2, digestBytes + " vs. " + stringBytes + " bytes/entry");
+    }
+
+    @Test
+    void cacheEntriesHoldTheDigestAsLongs() throws Exception {
+        // created before, so they don't count
+        var paths = new ArrayList<String>(ENTRIES);
+        for (var i = 0; i < ENTRIES; i++) {
+            paths.add(String.format("%07d/track.mp3", i));
+        }
+
+        try (var cache = MD5Cache.open(dir.resolve("cache.bin").toFile(), dir.resolve("legacy.json").toFile(),
+                HashEngine.STREAM, new Metrics())) {
+            var before = usedHeap();
+            for (var i = 0; i < ENTRIES; i++) {
+                cache.put(paths.get(i), new Digest(i, i), 1000, 1024 * 1024);
+            }
+            var entryBytes = perEntry(usedHeap() - before);
+
+            System.out.printf("MD5Cache %.1f bytes/entry besides the path%n", entryBytes);
+            // map node, table slot and the record of four longs, about 90
+            // bytes; a hex string of the digest alone would take 72 more
+            assertTrue(entryBytes < 120, entryBytes + " bytes/entry");
+            assertEquals(new Digest(7, 7), cache.getCachedMD5Sum(paths.get(7), 1000, 1024 * 1024));
+        }
+    }
+
+    private static double perEntry(long bytes) {
+        return bytes / (double) ENTRIES;
+    }
+
+    private static long usedHeap() {
+        var runtime = Runtime.getRuntime();
+        for (var i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
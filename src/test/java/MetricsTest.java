@@ -0,0 +1,18 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricsTest {
+
+    @Test
+    void exposesTheCurrentUploadLimit() {
+        var metrics = new Metrics();
+        var limiter = new ConcurrencyLimiter(1, 8, true, metrics::uploadLimit);
+        metrics.uploadLimit(limiter.limit());
+
+        assertTrue(metrics.progress().contains(", 4 uploads in flight max"), metrics.progress());
+        assertEquals(4, metrics.toJSON().getInt("uploadLimit"));
+        assertTrue(metrics.toPrometheus().contains("\nibroadcast_upload_limit 4\n"), metrics.toPrometheus());
+    }
+}
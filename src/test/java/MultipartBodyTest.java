@@ -0,0 +1,42 @@
+import bench.FakeIBroadcastServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MultipartBodyTest {
+
+    private static final long GB = 1024L * 1024 * 1024;
+
+    @TempDir
+    Path dir;
+
+    /**
+     * The test task runs with a heap of 32 MB, a buffered body wouldn't fit.
+     */
+    @Test
+    void streamsFilesLargerThanTheHeap() throws Exception {
+        var file = dir.resolve("huge.flac").toFile();
+        try (var sparse = new RandomAccessFile(file, "rw")) {
+            sparse.setLength(2 * GB);
+        }
+        assertTrue(Runtime.getRuntime().maxMemory() < file.length() / 16, "heap too large for this test");
+
+        try (var server = new FakeIBroadcastServer()) {
+            var client = new iBroadcastClient(server.loginUrl(), server.syncUrl(), 1,
+                    new BandwidthLimiter(0, List.of()));
+            client.login("test@example.com", "secret");
+
+            assertEquals(200, client.upload(file, "huge.flac", "1", "fake"));
+            assertEquals(1, server.uploads.get());
+            // the file plus a few hundred bytes of multipart headers
+            var overhead = server.bytesReceived.get() - file.length();
+            assertTrue(overhead > 0 && overhead < 1024, "unexpected body length " + server.bytesReceived.get());
+        }
+    }
+}
@@ -0,0 +1,121 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UploadJournalTest {
+
+    private static final String SYNC_URL = "https://sync.example.com";
+
+    private static final Digest A = new Digest(1, 1);
+    private static final Digest B = new Digest(2, 2);
+    private static final Digest C = new Digest(3, 3);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void resumesAnInterruptedRunOfTheSameAccount() throws Exception {
+        var file = dir.resolve("journal.bin").toFile();
+        try (var journal = UploadJournal.open(file, "1", SYNC_URL)) {
+            journal.uploaded(A);
+            journal.failed(B);
+        }
+        try (var journal = UploadJournal.open(file, "1", SYNC_URL)) {
+            assertTrue(journal.uploaded().contains(A));
+            assertEquals(1, journal.previousFailures());
+        }
+    }
+
+    @Test
+    void ignoresTheJournalOfAnotherAccountOrEndpoint() throws Exception {
+        var file = dir.resolve("journal.bin").toFile();
+        try (var journal = UploadJournal.open(file, "1", SYNC_URL)) {
+            journal.uploaded(A);
+            journal.failed(B);
+        }
+        try (var journal = UploadJournal.open(file, "2", SYNC_URL)) {
+            assertEquals(0, journal.uploaded().size());
+            assertEquals(0, journal.previousFailures());
+        }
+        try (var journal = UploadJournal.open(file, "1", "http://localhost:8080/sync")) {
+            assertEquals(0, journal.uploaded().size());
+            assertEquals(0, journal.previousFailures());
+        }
+    }
+
+    @Test
+    void namesTheJournalByAccountAndEndpoint() {
+        var name = UploadJournal.fileName("1", SYNC_URL);
+        assertTrue(name.matches("upload-journal-[0-9a-f]{16}\\.bin"), name);
+        assertEquals(name, UploadJournal.fileName("1", SYNC_URL));
+        assertNotEquals(name, UploadJournal.fileName("2", SYNC_URL));
+        assertNotEquals(name, UploadJournal.fileName("1", "http://localhost:8080/sync"));
+    }
+
+    @Test
+    void keepsOnlyTheFailuresOfAFinishedRun() throws Exception {
+        var file = dir.resolve("journal.bin").toFile();
+        try (var journal = UploadJournal.open(file, "1", SYNC_URL)) {
+            journal.uploaded(A);
+            journal.failed(B);
+            journal.failed(C);
+            journal.uploaded(C);
+            journal.finished();
+        }
+        try (var journal = UploadJournal.open(file, "1", SYNC_URL)) {
+            assertEquals(0, journal.uploaded().size());
+            assertEquals(1, journal.previousFailures());
+            journal.uploaded(B);
+            journal.finished();
+        }
+        assertFalse(file.exists());
+    }
+
+    @Test
+    void startsAFreshJournalInPlaceOfACorruptOne() throws Exception {
+        var file = dir.resolve("journal.bin").toFile();
+        Files.write(file.toPath(), "{\"not\": \"a journal\"}".getBytes());
+        try (var journal = UploadJournal.open(file, "1", SYNC_URL)) {
+            assertNotNull(journal.discarded());
+            assertEquals(0, journal.uploaded().size());
+            journal.uploaded(A);
+        }
+        try (var journal = UploadJournal.open(file, "1", SYNC_URL)) {
+            assertNull(journal.discarded());
+            assertTrue(journal.uploaded().contains(A));
+        }
+
+        Files.write(file.toPath(), new byte[2]);
+        try (var journal = UploadJournal.open(file, "1", SYNC_URL)) {
+            assertNotNull(journal.discarded());
+            assertEquals(0, journal.uploaded().size());
+        }
+    }
+
+    @Test
+    void dropsGarbageRecords() throws Exception {
+        var file = dir.resolve("journal.bin").toFile();
+        try (var journal = UploadJournal.open(file, "1", SYNC_URL)) {
+            journal.uploaded(A);
+        }
+        var length = file.length();
+        Files.write(file.toPath(), new byte[]{42, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0},
+                StandardOpenOption.APPEND);
+        try (var journal = UploadJournal.open(file, "1", SYNC_URL)) {
+            assertNull(journal.discarded());
+            assertTrue(journal.uploaded().contains(A));
+            assertEquals(0, journal.previousFailures());
+        }
+        assertEquals(length, file.length());
+    }
+}
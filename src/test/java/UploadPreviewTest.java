@@ -0,0 +1,35 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class UploadPreviewTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void firstSummaryHasTheCacheHits() throws Exception {
+        try (var cache = MD5Cache.open(dir.resolve("cache.bin").toFile(), dir.resolve("legacy.json").toFile(),
+                HashEngine.STREAM, new Metrics())) {
+            cache.put("a.mp3", new Digest(1, 1), 1000, 1024 * 1024);
+            cache.put("b.mp3", new Digest(2, 2), 1000, 1024 * 1024);
+            // the files don't exist, so only the cache can tell their md5 sums
+            var tracks = List.of(
+                    new Track(cache, dir.resolve("a.mp3").toFile(), "a.mp3", 1024 * 1024, 1000),
+                    new Track(cache, dir.resolve("b.mp3").toFile(), "b.mp3", 1024 * 1024, 1000),
+                    new Track(cache, dir.resolve("c.mp3").toFile(), "c.mp3", 1024 * 1024, 1000));
+            var server = new MD5Set();
+            server.add(new Digest(1, 1));
+
+            try (var preview = new UploadPreview(tracks, CompletableFuture.completedFuture(server), 1)) {
+                assertEquals("1 new files, 1.0 MB to upload; 1 already uploaded, 1 files still to check.\n",
+                        preview.summary());
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+import bench.FakeIBroadcastServer;
+import bench.LocalhostCertificate;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class iBroadcastClientTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void requestsReuseAtMostTheConfiguredConnections() throws Exception {
+        var file = Files.write(dir.resolve("track.mp3"), new byte[256 * 1024]).toFile();
+        var certificate = LocalhostCertificate.create(dir.resolve("localhost.p12"));
+        var pool = Executors.newFixedThreadPool(8);
+        try (var server = new FakeIBroadcastServer(certificate.serverContext())) {
+            // a client with other limits before doesn't change the limit of this one
+            new iBroadcastClient(server.loginUrl(), server.syncUrl(), 1,
+                    new BandwidthLimiter(0, List.of()), certificate.clientContext());
+            var client = new iBroadcastClient(server.loginUrl(), server.syncUrl(), 2,
+                    new BandwidthLimiter(0, List.of()), certificate.clientContext());
+            client.login("test@example.com", "secret");
+            server.addKnownMD5("0123456789abcdef0123456789abcdef");
+
+            // in rounds, so all connections are idle in between
+            for (var round = 0; round < 10; round++) {
+                var listing = pool.submit(() -> client.getMD5("1", "fake"));
+                var statuses = new ArrayList<Future<Integer>>();
+                for (var i = 0; i < 3; i++) {
+                    statuses.add(pool.submit(() -> client.upload(file, "track.mp3", "1", "fake")));
+                }
+                assertTrue(listing.get().contains(Digest.parseHex("0123456789abcdef0123456789abcdef")));
+                for (var status : statuses) {
+                    assertEquals(200, (int) status.get());
+                }
+            }
+            assertEquals(30, server.uploads.get());
+            assertTrue(server.connections() <= 2, server.connections() + " connections opened");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}